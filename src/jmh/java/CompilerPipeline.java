@@ -0,0 +1,61 @@
+import benchmarks.Pipeline;
+
+/**
+ * Pipeline implementation over the real Lexer and Parser, see benchmarks.Pipeline.
+ */
+public class CompilerPipeline implements Pipeline {
+    private String source;
+    private TokenBuffer tokens;
+    private final TokenBuffer scratch = new TokenBuffer();
+
+    @Override
+    public void load(String source) {
+        this.source = source;
+        this.tokens = new TokenBuffer();
+        new Lexer(source).tokenize(this.tokens);
+    }
+
+    @Override
+    public int lex() {
+        Lexer lexer = new Lexer(this.source);
+        int n = 1;
+        while (lexer.getToken().tokentype != Lexer.TokenType.End_of_input) {
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int tokenize() {
+        this.scratch.clear();
+        new Lexer(this.source).tokenize(this.scratch);
+        return this.scratch.size();
+    }
+
+    @Override
+    public int printTokens() {
+        return new Lexer(this.source).printTokens().length();
+    }
+
+    @Override
+    public Object parse() {
+        return new Parser(this.tokens).parse();
+    }
+
+    @Override
+    public Object compile() {
+        TokenBuffer tokens = new TokenBuffer();
+        new Lexer(this.source).tokenize(tokens);
+        return new Parser(tokens).parse();
+    }
+
+    @Override
+    public Object compileOnDemand() {
+        return new Parser(new Lexer(this.source)).parse();
+    }
+
+    @Override
+    public int tokenCount() {
+        return this.tokens.size();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A generated program loaded into a Pipeline, shared by the benchmarks.
+ */
+@State(Scope.Thread)
+public class Input {
+    @Param({"DEEP_NESTING", "LONG_EXPRESSIONS", "MANY_STATEMENTS", "COMMENT_HEAVY", "STRING_HEAVY"})
+    public ProgramGenerator.Shape shape;
+
+    @Param({"100000"})
+    public int size;
+
+    public Pipeline pipeline;
+    public int length;
+
+    @Setup(Level.Trial)
+    public void load() {
+        String source = ProgramGenerator.generate(this.shape, this.size);
+        this.pipeline = Pipeline.load();
+        this.pipeline.load(source);
+        this.length = source.length();
+    }
+
+    /**
+     * Tokens and source chars handled, reported by JMH as tokens/s and bytes/s next to ops/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long tokens;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.tokens = 0;
+            this.bytes = 0;
+        }
+
+        void add(Input in, int tokens) {
+            this.tokens += tokens;
+            this.bytes += in.length;
+        }
+    }
+}
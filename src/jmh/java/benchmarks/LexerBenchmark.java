@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Lexer throughput: ./gradlew jmh reports ops/s plus tokens/s and bytes/s, and allocation rate from -prof gc.
+ */
+@State(Scope.Thread)
+public class LexerBenchmark {
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        // printTokens() echoes every token to System.out
+        this.console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(this.console);
+    }
+
+    @Benchmark
+    public int getToken(Input in, Input.Throughput t) {
+        int n = in.pipeline.lex();
+        t.add(in, n);
+        return n;
+    }
+
+    @Benchmark
+    public int tokenize(Input in, Input.Throughput t) {
+        int n = in.pipeline.tokenize();
+        t.add(in, n);
+        return n;
+    }
+
+    @Benchmark
+    public int printTokens(Input in, Input.Throughput t) {
+        int length = in.pipeline.printTokens();
+        t.add(in, in.pipeline.tokenCount());
+        return length;
+    }
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * What Metrics costs, source to AST with tokens pulled on demand, the path that calls it most often.
+ * disabled is the default build, whose guarded calls the JIT removes: it should match
+ * ParserBenchmark.sourceToAstOnDemand, and a build from before Metrics, within 1%.
+ * enabled counts every token and node and times every getToken().
+ */
+public class MetricsBenchmark {
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dcompiler.metrics=false")
+    public Object disabled(Input in, Input.Throughput t) {
+        Object ast = in.pipeline.compileOnDemand();
+        t.add(in, in.pipeline.tokenCount());
+        return ast;
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = "-Dcompiler.metrics=build/metrics.json")
+    public Object enabled(Input in, Input.Throughput t) {
+        Object ast = in.pipeline.compileOnDemand();
+        t.add(in, in.pipeline.tokenCount());
+        return ast;
+    }
+}
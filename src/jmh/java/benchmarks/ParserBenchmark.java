@@ -0,0 +1,30 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Parser throughput over tokens lexed once up front, and end-to-end source to AST.
+ */
+public class ParserBenchmark {
+
+    @Benchmark
+    public Object parse(Input in, Input.Throughput t) {
+        Object ast = in.pipeline.parse();
+        t.add(in, in.pipeline.tokenCount());
+        return ast;
+    }
+
+    @Benchmark
+    public Object sourceToAst(Input in, Input.Throughput t) {
+        Object ast = in.pipeline.compile();
+        t.add(in, in.pipeline.tokenCount());
+        return ast;
+    }
+
+    @Benchmark
+    public Object sourceToAstOnDemand(Input in, Input.Throughput t) {
+        Object ast = in.pipeline.compileOnDemand();
+        t.add(in, in.pipeline.tokenCount());
+        return ast;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+/**
+ * The compiler stages the benchmarks drive. The compiler lives in the default package, which
+ * code in a named package cannot refer to, so CompilerPipeline (default package) implements this
+ * and is loaded by name; every call after setup is a plain interface call.
+ */
+public interface Pipeline {
+
+    /**
+     * Loads the source the other methods work on, and prepares what parse() needs up front.
+     */
+    void load(String source);
+
+    /**
+     * @return tokens produced by calling Lexer.getToken() until End_of_input
+     */
+    int lex();
+
+    /**
+     * @return tokens produced by Lexer.tokenize(TokenBuffer)
+     */
+    int tokenize();
+
+    /**
+     * @return length of the text returned by Lexer.printTokens()
+     */
+    int printTokens();
+
+    /**
+     * @return the AST Parser.parse() builds from the tokens prepared by load()
+     */
+    Object parse();
+
+    /**
+     * @return the AST for the loaded source, lexed and parsed from scratch
+     */
+    Object compile();
+
+    /**
+     * @return the AST for the loaded source, parsed while pulling tokens from the lexer on demand
+     */
+    Object compileOnDemand();
+
+    /**
+     * @return number of tokens in the loaded source
+     */
+    int tokenCount();
+
+    static Pipeline load() {
+        try {
+            return (Pipeline) Class.forName("CompilerPipeline").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
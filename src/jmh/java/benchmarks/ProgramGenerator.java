@@ -0,0 +1,140 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates syntactically valid source programs of a given shape and approximate size.
+ * Output is deterministic for a given shape and size.
+ */
+public final class ProgramGenerator {
+
+    public enum Shape {
+        /** while/if blocks nested a hundred levels deep */
+        DEEP_NESTING,
+        /** assignments with expressions of a few hundred operators */
+        LONG_EXPRESSIONS,
+        /** many short statements */
+        MANY_STATEMENTS,
+        /** short statements between large block and line comments */
+        COMMENT_HEAVY,
+        /** print statements with long string literals */
+        STRING_HEAVY
+    }
+
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "%", "<", "<=", ">", ">=", "==", "!=", "&&", "||"};
+    private static final int NESTING = 100;
+
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+
+    private ProgramGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param shape the kind of program
+     * @param size  approximate length of the program in chars
+     */
+    public static String generate(Shape shape, int size) {
+        ProgramGenerator g = new ProgramGenerator(size * 31L + shape.ordinal());
+        while (g.out.length() < size) {
+            switch (shape) {
+                case DEEP_NESTING:
+                    g.nested(NESTING);
+                    break;
+                case LONG_EXPRESSIONS:
+                    g.out.append(g.variable()).append(" = ");
+                    g.expression(300);
+                    g.out.append(";\n");
+                    break;
+                case MANY_STATEMENTS:
+                    g.statement();
+                    break;
+                case COMMENT_HEAVY:
+                    g.out.append("/* ").append(g.words(40)).append("\n   ").append(g.words(40)).append(" */\n");
+                    g.statement();
+                    g.out.append("// ").append(g.words(20)).append('\n');
+                    break;
+                case STRING_HEAVY:
+                    g.out.append("print(\"").append(g.words(60)).append("\", ").append(g.variable())
+                            .append(", \"").append(g.words(30)).append("\\n\");\n");
+                    break;
+            }
+        }
+        return g.out.toString();
+    }
+
+    private void nested(int depth) {
+        for (int i = 0; i < depth; i++) {
+            indent(i);
+            this.out.append(i % 2 == 0 ? "while (" : "if (").append(variable()).append(" < ").append(i).append(") {\n");
+        }
+        indent(depth);
+        statement();
+        for (int i = depth - 1; i >= 0; i--) {
+            indent(i);
+            this.out.append("}\n");
+        }
+    }
+
+    private void statement() {
+        switch (this.random.nextInt(4)) {
+            case 0:
+                this.out.append(variable()).append(" = ");
+                expression(4);
+                this.out.append(";\n");
+                break;
+            case 1:
+                this.out.append("print(\"").append(variable()).append(" is \", ").append(variable()).append(", \"\\n\");\n");
+                break;
+            case 2:
+                this.out.append("putc(").append(32 + this.random.nextInt(90)).append(");\n");
+                break;
+            default:
+                this.out.append("if (").append(variable()).append(" != 0) { ")
+                        .append(variable()).append(" = ").append(variable()).append(" - 1; }\n");
+                break;
+        }
+    }
+
+    private void expression(int operators) {
+        // operands are identifiers and integers only: the lexer reads '-' after ')' as a negation
+        operand();
+        for (int i = 0; i < operators; i++) {
+            this.out.append(' ').append(OPERATORS[this.random.nextInt(OPERATORS.length)]).append(' ');
+            operand();
+        }
+    }
+
+    private void operand() {
+        if (this.random.nextBoolean()) {
+            this.out.append(variable());
+        } else {
+            this.out.append(1 + this.random.nextInt(1000));
+        }
+    }
+
+    private String variable() {
+        return "v" + this.random.nextInt(64);
+    }
+
+    private String words(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            int length = 2 + this.random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                sb.append((char) ('a' + this.random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private void indent(int depth) {
+        for (int i = 0; i < depth; i++) {
+            this.out.append("  ");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * AST stored as parallel int arrays instead of one Parser.Node object per node.
+ * A node is an int index; its children are indexes too, NONE when empty, and leaf values are
+ * SymbolTable ids, so a repeated identifier or number is stored once.
+ * A child always exists before its parent, so it has a lower index: a plain loop over
+ * 0 .. size() - 1 visits every node after its children (post-order) without any stack.
+ * The whole tree goes away with clear(), which keeps the arrays for the next one.
+ */
+class AstArena {
+    static final int NONE = -1;
+
+    // .ast file layout: MAGIC, VERSION, value count, then length + UTF-8 bytes per value, node count,
+    // then per node: type, node - left or 0, node - right or 0, value id + 1 or 0; all varints.
+    // Types are Parser.NodeType ordinals, so VERSION changes whenever that enum does.
+    private static final int MAGIC = 0x41535442; // "ASTB"
+    private static final int VERSION = 1;
+
+    private static final Parser.NodeType[] NODE_TYPES = Parser.NodeType.values();
+
+    private int[] types;
+    private int[] lefts;
+    private int[] rights;
+    private int[] valueRefs;
+    private int size;
+    private SymbolTable values;
+
+    AstArena() {
+        this(256);
+    }
+
+    AstArena(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.types = new int[capacity];
+        this.lefts = new int[capacity];
+        this.rights = new int[capacity];
+        this.valueRefs = new int[capacity];
+        this.values = new SymbolTable();
+    }
+
+    /**
+     * @param left  index of the left child, or NONE
+     * @param right index of the right child, or NONE
+     * @return index of the new node
+     */
+    int make_node(Parser.NodeType nodetype, int left, int right) {
+        if (left >= this.size || right >= this.size) {
+            throw new IllegalArgumentException("child " + Math.max(left, right) + " does not exist yet");
+        }
+        return add(nodetype.ordinal(), left, right, NONE);
+    }
+
+    int make_node(Parser.NodeType nodetype, int left) {
+        return make_node(nodetype, left, NONE);
+    }
+
+    /**
+     * @return index of the new leaf
+     */
+    int make_leaf(Parser.NodeType nodetype, String value) {
+        return add(nodetype.ordinal(), NONE, NONE, this.values.intern(value));
+    }
+
+    private int add(int type, int left, int right, int valueRef) {
+        if (this.size == this.types.length) {
+            int capacity = this.size * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.lefts = Arrays.copyOf(this.lefts, capacity);
+            this.rights = Arrays.copyOf(this.rights, capacity);
+            this.valueRefs = Arrays.copyOf(this.valueRefs, capacity);
+        }
+        this.types[this.size] = type;
+        this.lefts[this.size] = left;
+        this.rights[this.size] = right;
+        this.valueRefs[this.size] = valueRef;
+        return this.size++;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    Parser.NodeType type(int node) {
+        return NODE_TYPES[this.types[node]];
+    }
+
+    int left(int node) {
+        return this.lefts[node];
+    }
+
+    int right(int node) {
+        return this.rights[node];
+    }
+
+    /**
+     * @return SymbolTable id of the node's value, NONE for inner nodes
+     */
+    int valueRef(int node) {
+        return this.valueRefs[node];
+    }
+
+    /**
+     * @return the node's value, "" for inner nodes like Node.make_node gives them
+     */
+    String value(int node) {
+        int ref = this.valueRefs[node];
+        return ref == NONE ? "" : this.values.name(ref);
+    }
+
+    /**
+     * Drops every node at once but keeps the arrays for the next tree.
+     */
+    void clear() {
+        this.size = 0;
+        this.values = new SymbolTable();
+    }
+
+    /**
+     * Shrinks the arrays to the nodes in use, for a tree that is kept around after it is built.
+     */
+    void trimToSize() {
+        int capacity = Math.max(this.size, 1);
+        this.types = Arrays.copyOf(this.types, capacity);
+        this.lefts = Arrays.copyOf(this.lefts, capacity);
+        this.rights = Arrays.copyOf(this.rights, capacity);
+        this.valueRefs = Arrays.copyOf(this.valueRefs, capacity);
+    }
+
+    /**
+     * Writes root and the nodes before it in the binary .ast format. Children are stored as distances
+     * back to them, which are mostly small, and leaf values once each, like the arena holds them.
+     * @param root a node index, NONE to write an empty tree
+     */
+    void write(DataOutputStream out, int root) throws IOException {
+        out.writeInt(MAGIC);
+        TokenBuffer.writeVarint(out, VERSION);
+        TokenBuffer.writeVarint(out, this.values.size());
+        for (int id = 0; id < this.values.size(); id++) {
+            byte[] bytes = this.values.name(id).getBytes(StandardCharsets.UTF_8);
+            TokenBuffer.writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        TokenBuffer.writeVarint(out, root + 1);
+        for (int i = 0; i <= root; i++) {
+            TokenBuffer.writeVarint(out, this.types[i]);
+            TokenBuffer.writeVarint(out, this.lefts[i] == NONE ? 0 : i - this.lefts[i]);
+            TokenBuffer.writeVarint(out, this.rights[i] == NONE ? 0 : i - this.rights[i]);
+            TokenBuffer.writeVarint(out, this.valueRefs[i] + 1);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a tree written by write(). Its root is the last node, size() - 1, and there is none in an empty tree.
+     * @param in the whole file, from its position
+     */
+    static AstArena read(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("not a .ast file");
+            }
+            int version = TokenBuffer.readVarint(in);
+            if (version != VERSION) {
+                throw new IOException("unsupported .ast version " + version);
+            }
+            SymbolTable values = new SymbolTable();
+            int valueCount = TokenBuffer.readVarint(in);
+            if (valueCount < 0 || valueCount > in.remaining()) { // every value takes at least its length
+                throw new IOException("malformed value count in .ast file");
+            }
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < valueCount; i++) {
+                int length = TokenBuffer.readVarint(in);
+                if (length < 0) {
+                    throw new IOException("malformed value " + i + " in .ast file");
+                }
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                in.get(bytes, 0, length);
+                values.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            int count = TokenBuffer.readVarint(in);
+            if (count < 0 || count > in.remaining() / 4) { // every node takes four varints
+                throw new IOException("malformed node count in .ast file");
+            }
+            AstArena arena = new AstArena(count);
+            arena.values = values;
+            for (int i = 0; i < count; i++) {
+                int type = TokenBuffer.readVarint(in);
+                int left = TokenBuffer.readVarint(in);
+                int right = TokenBuffer.readVarint(in);
+                int valueRef = TokenBuffer.readVarint(in) - 1;
+                // the values are distinct, so a ref past them is damage, as is a link forward or to no node
+                if (type < 0 || type >= NODE_TYPES.length || left < 0 || left > i || right < 0 || right > i
+                        || valueRef < -1 || valueRef >= values.size()) {
+                    throw new IOException("malformed node " + i + " in .ast file");
+                }
+                arena.add(type, left == 0 ? NONE : i - left, right == 0 ? NONE : i - right, valueRef);
+            }
+            return arena;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated .ast file");
+        }
+    }
+
+    /**
+     * Copies a Node tree into the arena.
+     * @param root may be null
+     * @return index of root's copy, NONE for null
+     */
+    int add(Parser.Node root) {
+        Copier copier = new Copier();
+        AstWalker.walk(root, copier);
+        return copier.stack[0];
+    }
+
+    /**
+     * Copies nodes post-order, keeping the indexes of copied subtrees on a stack until their parent is made.
+     */
+    private class Copier implements AstWalker.Visitor {
+        private int[] stack = new int[64];
+        private int top;
+
+        @Override
+        public boolean enter(Parser.Node node) {
+            return node != null && !Parser.isLeaf(node.nt);
+        }
+
+        @Override
+        public void leave(Parser.Node node) {
+            int index;
+            if (node == null) {
+                index = NONE;
+            } else if (Parser.isLeaf(node.nt)) {
+                index = make_leaf(node.nt, node.value == null ? "" : node.value);
+            } else {
+                // both children have just been copied, so their indexes are the top two entries
+                int right = this.stack[--this.top];
+                int left = this.stack[--this.top];
+                index = make_node(node.nt, left, right);
+            }
+            if (this.top == this.stack.length) {
+                this.stack = Arrays.copyOf(this.stack, this.top * 2);
+            }
+            this.stack[this.top++] = index;
+        }
+    }
+
+    /**
+     * Builds a Node tree from the arena, for code that still works on Parser.Node.
+     * @return the Node for root, null for NONE
+     */
+    Parser.Node toNode(int root) {
+        if (root == NONE) {
+            return null;
+        }
+        // children have lower indexes than parents: mark what root reaches going down, then build going up
+        boolean[] reached = new boolean[root + 1];
+        reached[root] = true;
+        for (int i = root; i >= 0; i--) {
+            if (reached[i]) {
+                if (this.lefts[i] != NONE) {
+                    reached[this.lefts[i]] = true;
+                }
+                if (this.rights[i] != NONE) {
+                    reached[this.rights[i]] = true;
+                }
+            }
+        }
+        Parser.Node[] nodes = new Parser.Node[root + 1];
+        for (int i = 0; i <= root; i++) {
+            if (reached[i]) {
+                nodes[i] = new Parser.Node(type(i), this.lefts[i] == NONE ? null : nodes[this.lefts[i]],
+                        this.rights[i] == NONE ? null : nodes[this.rights[i]], value(i));
+            }
+        }
+        return nodes[root];
+    }
+}
@@ -0,0 +1,166 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory cache of parsed trees for a process that compiles the same sources again and again,
+ * keyed like CompileCache by a hash of the source. Lookups go to a ConcurrentHashMap and never lock,
+ * so any number of threads can hit at once; a thread that misses parses outside the map, and if
+ * another thread cached the same source meanwhile, that tree is used instead.
+ * Entries weigh as many nodes as their tree has. When the total passes the cap, one thread deletes
+ * the entries used least recently until it is down to three quarters of it, while the others go on.
+ * Trees are shared by everyone who gets them and must not be changed; Optimizer.optimize rewrites
+ * its input, so get(source, true) caches the optimized tree separately instead.
+ */
+class AstCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxNodes;
+    private final AtomicLong nodes = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxNodes how many nodes the cached trees may have in all
+     */
+    AstCache(long maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    long hits() {
+        return this.hits.sum();
+    }
+
+    long misses() {
+        return this.misses.sum();
+    }
+
+    long evictions() {
+        return this.evictions.sum();
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return how many nodes the cached trees have in all
+     */
+    long nodes() {
+        return this.nodes.get();
+    }
+
+    /**
+     * @param optimize whether the tree is run through Optimizer.optimize
+     * @return the tree of source, from the cache if it is in it; shared, so it must not be changed
+     * @throws CompileException if source does not lex or parse, which is not cached
+     */
+    Parser.Node get(byte[] source, boolean optimize) {
+        String key = optimize ? CompileCache.key(source) + ".opt" : CompileCache.key(source);
+        Entry entry = this.entries.get(key);
+        if (entry != null) {
+            entry.used = System.nanoTime();
+            this.hits.increment();
+            return entry.root;
+        }
+        this.misses.increment();
+        Parser.Node t = new Parser(new Lexer(ByteBuffer.wrap(source))).parse();
+        if (optimize) {
+            t = Optimizer.optimize(t);
+        }
+        entry = new Entry(t, count(t));
+        if (entry.weight > this.maxNodes) {
+            return t; // would evict everything else, and itself next
+        }
+        Entry cached = this.entries.putIfAbsent(key, entry);
+        if (cached != null) {
+            return cached.root;
+        }
+        if (this.nodes.addAndGet(entry.weight) > this.maxNodes) {
+            evict();
+        }
+        return t;
+    }
+
+    /**
+     * Deletes the entries used least recently until the cache is down to three quarters of its cap.
+     * If another thread is already at it, returns at once rather than wait for it.
+     */
+    private void evict() {
+        if (!this.evicting.tryLock()) {
+            return;
+        }
+        try {
+            // other threads go on setting used, so sort by a copy of it
+            List<Used> entries = new ArrayList<>(this.entries.size());
+            this.entries.forEach((key, entry) -> entries.add(new Used(key, entry)));
+            entries.sort(Comparator.comparingLong(e -> e.used));
+            for (Used e : entries) {
+                if (this.nodes.get() <= this.maxNodes / 4 * 3) {
+                    break;
+                }
+                if (this.entries.remove(e.key, e.entry)) {
+                    this.nodes.addAndGet(-e.entry.weight);
+                    this.evictions.increment();
+                }
+            }
+        } finally {
+            this.evicting.unlock();
+        }
+    }
+
+    /**
+     * @return how many nodes t has, empty children not counted
+     */
+    static int count(Parser.Node t) {
+        int[] count = new int[1];
+        AstWalker.walk(t, new AstWalker.Visitor() {
+            @Override
+            public boolean enter(Parser.Node node) {
+                if (node != null) {
+                    count[0]++;
+                }
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * A cached tree.
+     */
+    private static class Entry {
+        final Parser.Node root;
+        final int weight;
+        // when it was last returned, by System.nanoTime; a racy write is fine, any recent time will do
+        volatile long used = System.nanoTime();
+
+        Entry(Parser.Node root, int weight) {
+            this.root = root;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * An entry and when it was last used, as of the start of an eviction.
+     */
+    private static class Used {
+        final String key;
+        final Entry entry;
+        final long used;
+
+        Used(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.used = entry.used;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+/**
+ * Walks a Parser.Node tree with an explicit stack instead of recursion, so how deep a tree can be
+ * is limited by the heap, not by the thread stack (-Xss). parse() chains statements into a
+ * left-leaning nd_Sequence spine, so a program's depth grows with its statement count.
+ */
+class AstWalker {
+
+    /**
+     * Callbacks for walk(). Empty children (null) are visited too, like printAST prints them as ";".
+     */
+    interface Visitor {
+        /**
+         * Called before the node's children, pre-order.
+         * @param node the node, null for an empty child
+         * @return false to skip the node's children; leave() is still called
+         */
+        default boolean enter(Parser.Node node) {
+            return true;
+        }
+
+        /**
+         * Called between the node's children, in-order, e.g. to put a jump between the operands of &&.
+         * @param node the node, never null; not called when enter() skipped its children
+         */
+        default void between(Parser.Node node) {
+        }
+
+        /**
+         * Called after the node's children, post-order.
+         * @param node the node, null for an empty child
+         */
+        default void leave(Parser.Node node) {
+        }
+    }
+
+    // how far each node on the stack has got
+    private static final byte ENTER = 0, LEFT = 1, RIGHT = 2, LEAVE = 3;
+
+    /**
+     * Visits root and everything below it, left child before right child.
+     */
+    static void walk(Parser.Node root, Visitor visitor) {
+        Parser.Node[] nodes = new Parser.Node[64];
+        byte[] states = new byte[64];
+        int top = 0;
+        nodes[0] = root;
+        states[0] = ENTER;
+        while (top >= 0) {
+            Parser.Node node = nodes[top];
+            Parser.Node child;
+            switch (states[top]) {
+                case ENTER:
+                    states[top] = visitor.enter(node) && node != null ? LEFT : LEAVE;
+                    continue;
+                case LEFT:
+                    states[top] = RIGHT;
+                    child = node.left;
+                    break;
+                case RIGHT:
+                    visitor.between(node);
+                    states[top] = LEAVE;
+                    child = node.right;
+                    break;
+                default:
+                    visitor.leave(node);
+                    nodes[top--] = null;
+                    continue;
+            }
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+            }
+            nodes[top] = child;
+            states[top] = ENTER;
+        }
+    }
+}
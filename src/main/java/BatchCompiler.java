@@ -0,0 +1,228 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many sources in one JVM: each is lexed, parsed, optionally optimized and turned into
+ * Bytecode, on a work-stealing ForkJoinPool with a fixed number of threads. A file that fails is
+ * reported with its error and the others go on. Nothing is shared between files but the pool, and
+ * the CompileCache if there is one.
+ */
+class BatchCompiler {
+
+    /**
+     * What compiling one file gave.
+     */
+    static class Result {
+        final Path path;
+        final String error; // null when the file compiled, otherwise one line per error
+        final int tokens;   // -1 when they came from a CompileCache
+        final int codeSize;
+        final long nanos;
+
+        Result(Path path, String error, int tokens, int codeSize, long nanos) {
+            this.path = path;
+            this.error = error;
+            this.tokens = tokens;
+            this.codeSize = codeSize;
+            this.nanos = nanos;
+        }
+
+        boolean ok() {
+            return this.error == null;
+        }
+
+        @Override
+        public String toString() {
+            return this.ok()
+                    ? String.format("ok     %s (%s%d code words, %.1f ms)", this.path,
+                            this.tokens < 0 ? "" : this.tokens + " tokens, ", this.codeSize, this.nanos / 1e6)
+                    : String.format("FAILED %s: %s", this.path, this.error.replace("\n", "\n    "));
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean optimize;
+    private final CompileCache cache;
+    private final int maxErrors;
+
+    BatchCompiler(int threads, boolean optimize) {
+        this(threads, optimize, null, 1);
+    }
+
+    /**
+     * @param threads   how many files are compiled at once
+     * @param optimize  run Optimizer.optimize on each AST before generating code
+     * @param cache     where compiled code is looked up before compiling, or null
+     * @param maxErrors how many errors to report for a file that fails; past the first, the file is
+     *                  parsed again collecting Diagnostics, which only failing files pay for
+     */
+    BatchCompiler(int threads, boolean optimize, CompileCache cache, int maxErrors) {
+        this.pool = new ForkJoinPool(threads);
+        this.optimize = optimize;
+        this.cache = cache;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Compiles one file on the calling thread. Never throws for a bad file: errors go in the Result.
+     */
+    Result compile(Path path) {
+        long start = System.nanoTime();
+        int tokens = 0;
+        byte[] source = null;
+        String error;
+        try {
+            // read into the heap rather than mapped, since thousands of mappings wait on the GC to be unmapped
+            source = Files.readAllBytes(path);
+            Bytecode code;
+            if (this.cache != null) {
+                tokens = -1;
+                code = this.cache.compile(source, this.optimize);
+            } else {
+                TokenBuffer buffer = new TokenBuffer();
+                new Lexer(ByteBuffer.wrap(source)).tokenize(buffer);
+                tokens = buffer.size();
+                Parser.Node t = new Parser(buffer).parse();
+                code = CodeGen.generate(this.optimize ? Optimizer.optimize(t) : t);
+            }
+            return new Result(path, null, tokens, code.code.length, System.nanoTime() - start);
+        } catch (CompileException e) {
+            error = this.maxErrors > 1 ? diagnose(source, e) : e.getMessage();
+        } catch (IOException e) {
+            error = "Exception: " + e;
+        } catch (RuntimeException | StackOverflowError e) {
+            // a bug in a later stage, or expressions nested deeper than the recursive parser goes
+            error = "Internal error: " + e;
+        }
+        return new Result(path, error, tokens, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * @param first the error compiling source stopped at
+     * @return the errors in source, up to maxErrors, one per line; just first's if looking for more fails
+     */
+    private String diagnose(byte[] source, CompileException first) {
+        Diagnostics diagnostics = new Diagnostics(this.maxErrors);
+        try {
+            new Parser(new Lexer(ByteBuffer.wrap(source))).parse(diagnostics);
+        } catch (RuntimeException | StackOverflowError e) {
+            // recovering went past what the first pass reached, e.g. into expressions nested too deep
+            return first.getMessage();
+        }
+        return diagnostics.hasErrors() ? diagnostics.toString().trim() : first.getMessage();
+    }
+
+    /**
+     * Compiles every file on the pool.
+     * @param done gets each Result in the order of paths, as soon as it and all before it are finished
+     * @return the Results, in the order of paths
+     */
+    List<Result> compileAll(List<Path> paths, Consumer<Result> done) {
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            tasks.add(this.pool.submit(() -> compile(path)));
+        }
+        List<Result> results = new ArrayList<>(paths.size());
+        for (ForkJoinTask<Result> task : tasks) {
+            Result result = task.join();
+            results.add(result);
+            done.accept(result);
+        }
+        return results;
+    }
+
+    void shutdown() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * @param input a directory, searched for .c files, or a manifest listing one source per line;
+     *              blank lines and lines starting with # are skipped, relative paths are relative to the manifest
+     * @return the sources, a directory's sorted by path
+     */
+    static List<Path> sources(Path input) throws IOException {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> files = Files.walk(input)) {
+                return files.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".c"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+        Path base = input.toAbsolutePath().getParent();
+        List<Path> sources = new ArrayList<>();
+        for (String line : Files.readAllLines(input)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                sources.add(base.resolve(line));
+            }
+        }
+        return sources;
+    }
+
+    public static void main(String[] args) {
+        // compiles every source in a directory or manifest, src/main/resources by default; prints one
+        // line per file and exits with 1 if any failed. --threads=N (all cores by default), --optimize,
+        // --cache=DIR to keep compiled code between runs, --cache-mb=N to cap its size (256 by default),
+        // --max-errors=N to report up to N errors per failing file (1 by default)
+        boolean optimize = Arrays.asList(args).contains("--optimize");
+        int threads = Integer.parseInt(option(args, "--threads=", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String cacheDir = option(args, "--cache=", null);
+        long cacheBytes = Long.parseLong(option(args, "--cache-mb=", "256")) << 20;
+        int maxErrors = Integer.parseInt(option(args, "--max-errors=", "1"));
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        Path input = Paths.get(args.length > 0 ? args[0] : "src/main/resources");
+        BatchCompiler compiler = null;
+        try {
+            CompileCache cache = cacheDir == null ? null : new CompileCache(Paths.get(cacheDir), cacheBytes);
+            compiler = new BatchCompiler(threads, optimize, cache, maxErrors);
+            long start = System.nanoTime();
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 8192);
+            List<Result> results = compiler.compileAll(sources(input), result -> {
+                try {
+                    out.write(result.toString());
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            long failed = results.stream().filter(r -> !r.ok()).count();
+            out.write(String.format("%d files, %d failed, %d ms on %d threads%n",
+                    results.size(), failed, (System.nanoTime() - start) / 1000000, threads));
+            if (compiler.cache != null) {
+                out.write(String.format("cache: %d hits, %d misses%n", compiler.cache.hits(), compiler.cache.misses()));
+            }
+            out.flush();
+            if (failed > 0) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } finally {
+            if (compiler != null) {
+                compiler.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return the value of the first argument starting with prefix, otherwise orElse
+     */
+    private static String option(String[] args, String prefix, String orElse) {
+        return Arrays.stream(args).filter(a -> a.startsWith(prefix))
+                .map(a -> a.substring(prefix.length())).findFirst().orElse(orElse);
+    }
+}
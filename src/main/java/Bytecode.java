@@ -0,0 +1,148 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compiled program for the VM: a flat int[] of instructions, the string literals it prints,
+ * and how many variable slots it needs.
+ * Each instruction is an opcode, followed by one operand for FETCH/STORE (variable slot),
+ * PUSH (value), PRTS (string index) and JMP/JZ/JNZ (absolute address in code).
+ * && and || have no opcodes of their own: CodeGen jumps past the right operand, so it only runs when needed.
+ */
+class Bytecode {
+    static final int FETCH = 0, STORE = 1, PUSH = 2, ADD = 3, SUB = 4, MUL = 5, DIV = 6, MOD = 7,
+            LT = 8, GT = 9, LE = 10, GE = 11, EQ = 12, NE = 13, NEG = 14, NOT = 15,
+            JMP = 16, JZ = 17, JNZ = 18, PRTC = 19, PRTS = 20, PRTI = 21, HALT = 22;
+
+    // listing names, by opcode, as in the Rosetta Code code generator
+    private static final String[] NAMES = {"fetch", "store", "push", "add", "sub", "mul", "div", "mod",
+            "lt", "gt", "le", "ge", "eq", "ne", "neg", "not",
+            "jmp", "jz", "jnz", "prtc", "prts", "prti", "halt"};
+
+    // .code file layout: MAGIC, VERSION, stackSize, string count, then length + UTF-8 bytes per string,
+    // the same for variables, all varints; then the code length as a varint and the code as plain ints,
+    // so reading it back is one bulk copy. The opcodes are part of the format: VERSION changes with them.
+    private static final int MAGIC = 0x434f4445; // "CODE"
+    private static final int VERSION = 2;
+
+    final int[] code;
+    final String[] strings;  // as written in the source, escapes included
+    final String[] texts;    // what PRTS prints, escapes replaced
+    final String[] variables;
+    final int stackSize;
+
+    /**
+     * @param variables name of each variable slot
+     * @param stackSize the most values the code ever has on the stack at once
+     */
+    Bytecode(int[] code, String[] strings, String[] variables, int stackSize) {
+        this.code = code;
+        this.strings = strings;
+        this.texts = new String[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            this.texts[i] = Interpreter.unescape(strings[i]);
+        }
+        this.variables = variables;
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * Writes the program in the binary .code format, for CompileCache.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        TokenBuffer.writeVarint(out, VERSION);
+        TokenBuffer.writeVarint(out, this.stackSize);
+        writeStrings(out, this.strings);
+        writeStrings(out, this.variables);
+        TokenBuffer.writeVarint(out, this.code.length);
+        // one bulk write, where writeInt per word goes through the stream's lock four times
+        ByteBuffer words = ByteBuffer.allocate(this.code.length * 4);
+        words.asIntBuffer().put(this.code);
+        out.write(words.array());
+        out.flush();
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        TokenBuffer.writeVarint(out, strings.length);
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            TokenBuffer.writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a program written by write().
+     * @param in the whole file, from its position
+     */
+    static Bytecode read(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("not a .code file");
+            }
+            int version = TokenBuffer.readVarint(in);
+            if (version != VERSION) {
+                throw new IOException("unsupported .code version " + version);
+            }
+            int stackSize = TokenBuffer.readVarint(in);
+            String[] strings = readStrings(in);
+            String[] variables = readStrings(in);
+            int[] code = new int[TokenBuffer.readVarint(in)];
+            in.asIntBuffer().get(code);
+            in.position(in.position() + code.length * 4);
+            return new Bytecode(code, strings, variables, stackSize);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated .code file");
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) throws IOException {
+        String[] strings = new String[TokenBuffer.readVarint(in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[TokenBuffer.readVarint(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Writes the code listing: a header with the data size and string count, the strings,
+     * then one instruction per line with its address.
+     */
+    void list(Writer out) throws IOException {
+        out.write("Datasize: " + this.variables.length + " Strings: " + this.strings.length + "\n");
+        for (String s : this.strings) {
+            out.write("\"" + s + "\"\n");
+        }
+        for (int pc = 0; pc < this.code.length; ) {
+            int address = pc, opcode = this.code[pc++];
+            out.write(String.format("%5d ", address));
+            switch (opcode) {
+                case FETCH:
+                case STORE:
+                    out.write(String.format("%-5s [%d]", NAMES[opcode], this.code[pc++]));
+                    break;
+                case PUSH:
+                case PRTS:
+                    out.write(String.format("%-5s %d", NAMES[opcode], this.code[pc++]));
+                    break;
+                case JMP:
+                case JZ:
+                case JNZ:
+                    int target = this.code[pc++];
+                    out.write(String.format("%-5s (%d) %d", NAMES[opcode], target - pc, target));
+                    break;
+                default:
+                    out.write(NAMES[opcode]);
+                    break;
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
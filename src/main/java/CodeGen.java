@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers a Parser.Node tree into Bytecode for the VM.
+ * Expressions compile to stack code, && and || to JZ/JNZ past their right operand,
+ * if and while to JZ/JMP over their bodies.
+ * Expressions are walked by AstWalker and the left-leaning nd_Sequence spine is unrolled with a loop,
+ * so neither long expressions nor long programs depend on the thread stack.
+ */
+class CodeGen {
+    // opcode for each binary operator node, by NodeType ordinal, -1 for other nodes
+    private static final int[] OPCODES = new int[Parser.NodeType.values().length];
+
+    static {
+        Arrays.fill(OPCODES, -1);
+        OPCODES[Parser.NodeType.nd_Mul.ordinal()] = Bytecode.MUL;
+        OPCODES[Parser.NodeType.nd_Div.ordinal()] = Bytecode.DIV;
+        OPCODES[Parser.NodeType.nd_Mod.ordinal()] = Bytecode.MOD;
+        OPCODES[Parser.NodeType.nd_Add.ordinal()] = Bytecode.ADD;
+        OPCODES[Parser.NodeType.nd_Sub.ordinal()] = Bytecode.SUB;
+        OPCODES[Parser.NodeType.nd_Lss.ordinal()] = Bytecode.LT;
+        OPCODES[Parser.NodeType.nd_Leq.ordinal()] = Bytecode.LE;
+        OPCODES[Parser.NodeType.nd_Gtr.ordinal()] = Bytecode.GT;
+        OPCODES[Parser.NodeType.nd_Geq.ordinal()] = Bytecode.GE;
+        OPCODES[Parser.NodeType.nd_Eql.ordinal()] = Bytecode.EQ;
+        OPCODES[Parser.NodeType.nd_Neq.ordinal()] = Bytecode.NE;
+    }
+
+    private int[] code = new int[256];
+    private int size;
+    private final Map<String, Integer> variables;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int depth, maxDepth;
+
+    private CodeGen(Map<String, Integer> variables) {
+        this.variables = variables;
+    }
+
+    /**
+     * @param root the tree from Parser.parse() or Optimizer.optimize(), may be null
+     */
+    static Bytecode generate(Parser.Node root) {
+        CodeGen gen = new CodeGen(new HashMap<>());
+        gen.stmt(root);
+        gen.emit(Bytecode.HALT);
+        String[] variables = new String[gen.variables.size()];
+        gen.variables.forEach((name, slot) -> variables[slot] = name);
+        String[] strings = new String[gen.strings.size()];
+        gen.strings.forEach((s, index) -> strings[index] = s);
+        return new Bytecode(Arrays.copyOf(gen.code, gen.size), strings, variables, gen.maxDepth);
+    }
+
+    /**
+     * Lowers one expression on its own, for the Interpreter's expressions too deep to nest closures for.
+     * @param variables slots of the variables so far; new ones are added as the next slot, as generate() does
+     * @return code that leaves t's value on the stack and halts, for VM.eval; it has no strings or variable names
+     */
+    static Bytecode expression(Parser.Node t, Map<String, Integer> variables) {
+        CodeGen gen = new CodeGen(variables);
+        gen.expr(t);
+        gen.emit(Bytecode.HALT);
+        return new Bytecode(Arrays.copyOf(gen.code, gen.size), new String[0], new String[0], gen.maxDepth);
+    }
+
+    private void stmt(Parser.Node t) {
+        if (t == null) {
+            return;
+        }
+        int jump;
+        switch (t.nt) {
+            case nd_Sequence:
+                List<Parser.Node> nodes = new ArrayList<>();
+                for (Parser.Node s = t; s != null && s.nt == Parser.NodeType.nd_Sequence; s = s.left) {
+                    nodes.add(s.right);
+                    if (s.left != null && s.left.nt != Parser.NodeType.nd_Sequence) {
+                        nodes.add(s.left);
+                    }
+                }
+                for (int i = nodes.size() - 1; i >= 0; i--) {
+                    stmt(nodes.get(i));
+                }
+                break;
+            case nd_Assign:
+                expr(t.right);
+                emit(Bytecode.STORE, slot(t.left.value), -1);
+                break;
+            case nd_If:
+                // nd_If(condition, nd_If(then, else))
+                expr(t.left);
+                jump = emit(Bytecode.JZ, 0, -1);
+                stmt(t.right.left);
+                if (t.right.right != null) {
+                    int skipElse = emit(Bytecode.JMP, 0, 0);
+                    this.code[jump] = this.size;
+                    jump = skipElse;
+                    stmt(t.right.right);
+                }
+                this.code[jump] = this.size;
+                break;
+            case nd_While:
+                int top = this.size;
+                expr(t.left);
+                jump = emit(Bytecode.JZ, 0, -1);
+                stmt(t.right);
+                emit(Bytecode.JMP, top, 0);
+                this.code[jump] = this.size;
+                break;
+            case nd_Prtc:
+                expr(t.left);
+                emit(Bytecode.PRTC);
+                break;
+            case nd_Prti:
+                expr(t.left);
+                emit(Bytecode.PRTI);
+                break;
+            case nd_Prts:
+                Integer index = this.strings.get(t.left.value);
+                if (index == null) {
+                    index = this.strings.size();
+                    this.strings.put(t.left.value, index);
+                }
+                emit(Bytecode.PRTS, index, 0);
+                break;
+            default:
+                throw new IllegalArgumentException("not a statement: " + t.nt);
+        }
+    }
+
+    /**
+     * Emits t's value onto the stack, walking it with AstWalker rather than recursion, so an
+     * expression may nest as deep as the parser lets it.
+     */
+    private void expr(Parser.Node t) {
+        AstWalker.walk(t, new AstWalker.Visitor() {
+            // for each && and || being emitted, the address of the jump after its left operand
+            private final ArrayDeque<Integer> leftJumps = new ArrayDeque<>();
+
+            @Override
+            public void between(Parser.Node node) {
+                if (node.nt == Parser.NodeType.nd_And || node.nt == Parser.NodeType.nd_Or) {
+                    this.leftJumps.push(emit(node.nt == Parser.NodeType.nd_And ? Bytecode.JZ : Bytecode.JNZ, 0, -1));
+                }
+            }
+
+            @Override
+            public void leave(Parser.Node node) {
+                if (node != null) {
+                    operator(node, this.leftJumps);
+                }
+            }
+        });
+    }
+
+    /**
+     * Emits one node of an expression, whose operands are already on the stack.
+     * && and || are emitted so that the right operand only runs when the left one does not decide the
+     * result, the same as the Interpreter and JvmCompiler:
+     * left; jump shortCircuit; right; jump shortCircuit; push !value; jmp end; shortCircuit: push value; end:
+     * where jump is JZ and value 0 for &&, JNZ and 1 for ||.
+     * @param leftJumps where the jumps after the left operands of the enclosing && and || are
+     */
+    private void operator(Parser.Node t, ArrayDeque<Integer> leftJumps) {
+        switch (t.nt) {
+            case nd_Integer:
+                emit(Bytecode.PUSH, literal(t), 1);
+                return;
+            case nd_Ident:
+                emit(Bytecode.FETCH, slot(t.value), 1);
+                return;
+            case nd_Negate:
+                emit(Bytecode.NEG);
+                return;
+            case nd_Not:
+                emit(Bytecode.NOT);
+                return;
+            case nd_And:
+            case nd_Or: {
+                int value = t.nt == Parser.NodeType.nd_And ? 0 : 1;
+                int right = emit(value == 0 ? Bytecode.JZ : Bytecode.JNZ, 0, -1);
+                emit(Bytecode.PUSH, 1 - value, 1);
+                int end = emit(Bytecode.JMP, 0, 0);
+                this.code[leftJumps.pop()] = this.size;
+                this.code[right] = this.size;
+                emit(Bytecode.PUSH, value, 0); // the other push already counted the one result
+                this.code[end] = this.size;
+                return;
+            }
+            default:
+                break;
+        }
+        int opcode = OPCODES[t.nt.ordinal()];
+        if (opcode < 0) {
+            throw new IllegalArgumentException("not an expression: " + t.nt);
+        }
+        emit(opcode);
+        this.depth--; // two operands in, one result out
+    }
+
+    /**
+     * @return the value of an nd_Integer; the parser rejects literals out of int range where it can say
+     * where they are, so this only fails on a tree from elsewhere, e.g. one built by hand
+     */
+    static int literal(Parser.Node t) {
+        try {
+            return Integer.parseInt(t.value);
+        } catch (NumberFormatException e) {
+            throw new CompileException(-1, -1, "Integer literal out of range: " + t.value);
+        }
+    }
+
+    private int slot(String name) {
+        Integer slot = this.variables.get(name);
+        if (slot == null) {
+            slot = this.variables.size();
+            this.variables.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Emits an instruction without an operand. PRTC/PRTI pop their value, NEG/NOT replace it.
+     */
+    private void emit(int opcode) {
+        if (opcode == Bytecode.PRTC || opcode == Bytecode.PRTI) {
+            this.depth--;
+        }
+        ensure(1);
+        this.code[this.size++] = opcode;
+    }
+
+    /**
+     * @param stackEffect how many values the instruction leaves on the stack, minus how many it takes
+     * @return address of the operand, for patching jump targets
+     */
+    private int emit(int opcode, int operand, int stackEffect) {
+        this.depth += stackEffect;
+        this.maxDepth = Math.max(this.maxDepth, this.depth);
+        ensure(2);
+        this.code[this.size++] = opcode;
+        this.code[this.size] = operand;
+        return this.size++;
+    }
+
+    private void ensure(int n) {
+        if (this.size + n > this.code.length) {
+            this.code = Arrays.copyOf(this.code, Math.max(this.code.length * 2, this.size + n));
+        }
+    }
+
+    public static void main(String[] args) {
+        // writes the code listing for a source file next to it as .code, count.c by default
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+        try {
+            Bytecode code = generate(new Parser(Lexer.map(path)).parse());
+            String name = path.getFileName().toString();
+            int dot = name.lastIndexOf('.'); // a name without one keeps all of it
+            try (Writer out = Files.newBufferedWriter(path.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + ".code"))) {
+                code.list(out);
+            }
+            System.out.println("Successfully wrote to the file.");
+        } catch (NoSuchFileException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } catch (CompileException e) {
+            e.exit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compiler output, shared by every compiler pointed at the same directory.
+ * Entries are keyed by the SHA-256 of COMPILER_VERSION and the source bytes, so an edited source or
+ * a changed compiler simply misses. Tokens are kept as <key>.lexb in TokenBuffer's format, ASTs as
+ * <key>.ast in AstArena's and Bytecode as <key>.code or, optimized, <key>.opt.code; a hit reads that
+ * file instead of lexing, parsing or generating code. Bytecode is the cheapest to read back, since
+ * it is a few flat arrays, where an AST has to be rebuilt Node by Node.
+ * A miss writes only the stage that was asked for. Writing the stages before it too costs more than
+ * compiling without a cache, and pays off only for a caller that asks for several stages of the same
+ * sources, so that is opt-in: see the intermediates flag.
+ * Entries are written to a temporary file and moved into place atomically, so another compiler sees
+ * the old entry, the new one or none, never part of one; one that cannot be read is deleted and
+ * compiled again.
+ * A hit sets the entry's modification time, and when the directory grows past its size cap the
+ * entries used least recently are deleted.
+ */
+class CompileCache {
+    // part of every key: change it whenever any stage produces something else for the same source
+    static final String COMPILER_VERSION = "2";
+
+    // a temporary file this old was left by a compiler that died while writing it
+    private static final long ABANDONED_MILLIS = 60 * 60 * 1000;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final boolean intermediates;
+    private final AtomicLong bytes = new AtomicLong(); // what the directory holds, as of the last scan plus writes since
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes how large the directory may grow before entries are evicted
+     */
+    CompileCache(Path dir, long maxBytes) throws IOException {
+        this(dir, maxBytes, false);
+    }
+
+    /**
+     * @param maxBytes      how large the directory may grow before entries are evicted
+     * @param intermediates whether a miss also looks up, and caches, the stages before the one asked
+     *                      for: the tokens of a parse, the AST and tokens of a compile
+     */
+    CompileCache(Path dir, long maxBytes, boolean intermediates) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+        this.intermediates = intermediates;
+        this.bytes.set(scan().stream().mapToLong(e -> e.size).sum());
+    }
+
+    long hits() {
+        return this.hits.get();
+    }
+
+    long misses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the key of source's entries: a hex SHA-256 of COMPILER_VERSION and the source bytes
+     */
+    static String key(byte[] source) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            StringBuilder key = new StringBuilder(64);
+            for (byte b : sha.digest(source)) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * @return the tokens of source, as Lexer(ByteBuffer).tokenize gives them, from the cache if they are in it
+     * @throws CompileException if source does not lex, which is not cached
+     */
+    TokenBuffer tokens(byte[] source) {
+        return tokens(source, key(source));
+    }
+
+    private TokenBuffer tokens(byte[] source, String key) {
+        ByteBuffer cached = read(key + ".lexb");
+        if (cached != null) {
+            try {
+                TokenBuffer tokens = TokenBuffer.read(cached);
+                this.hits.incrementAndGet();
+                return tokens;
+            } catch (IOException | RuntimeException e) {
+                // damaged, e.g. by a crash before the file reached the disk: lex again and replace it
+                discard(key + ".lexb");
+            }
+        }
+        this.misses.incrementAndGet();
+        TokenBuffer tokens = new TokenBuffer();
+        new Lexer(ByteBuffer.wrap(source)).tokenize(tokens);
+        store(key + ".lexb", tokens::write);
+        return tokens;
+    }
+
+    /**
+     * @return the AST of source, from the cache if it is in it; with intermediates, if only its tokens
+     * are, they are parsed
+     * @throws CompileException if source does not lex or parse, which is not cached
+     */
+    Parser.Node parse(byte[] source) {
+        return parse(source, key(source));
+    }
+
+    private Parser.Node parse(byte[] source, String key) {
+        ByteBuffer cached = read(key + ".ast");
+        if (cached != null) {
+            try {
+                AstArena arena = AstArena.read(cached);
+                this.hits.incrementAndGet();
+                return arena.toNode(arena.size() - 1);
+            } catch (IOException | RuntimeException e) {
+                // damaged: parse again and replace it
+                discard(key + ".ast");
+            }
+        }
+        this.misses.incrementAndGet();
+        Parser.Node t = this.intermediates ? new Parser(tokens(source, key)).parse()
+                : new Parser(new Lexer(ByteBuffer.wrap(source))).parse();
+        AstArena arena = new AstArena();
+        int root = arena.add(t);
+        store(key + ".ast", out -> arena.write(out, root));
+        return t;
+    }
+
+    /**
+     * @param optimize whether Optimizer.optimize runs on the AST first; the two are cached apart
+     * @return the code CodeGen generates for source, from the cache if it is in it; with intermediates,
+     * if only its AST or tokens are, the rest of the way is compiled
+     * @throws CompileException if source does not lex or parse, which is not cached
+     */
+    Bytecode compile(byte[] source, boolean optimize) {
+        String key = key(source);
+        String name = key + (optimize ? ".opt.code" : ".code");
+        ByteBuffer cached = read(name);
+        if (cached != null) {
+            try {
+                Bytecode code = Bytecode.read(cached);
+                this.hits.incrementAndGet();
+                return code;
+            } catch (IOException | RuntimeException e) {
+                // damaged: compile again and replace it
+                discard(name);
+            }
+        }
+        this.misses.incrementAndGet();
+        Parser.Node t = this.intermediates ? parse(source, key) : new Parser(new Lexer(ByteBuffer.wrap(source))).parse();
+        Bytecode code = CodeGen.generate(optimize ? Optimizer.optimize(t) : t);
+        store(name, code::write);
+        return code;
+    }
+
+    /**
+     * @return the entry's bytes, null if there is none
+     */
+    private ByteBuffer read(String name) {
+        Path file = this.dir.resolve(name);
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted since it was read, which makes no difference to this hit
+        }
+        return bytes;
+    }
+
+    /**
+     * Deletes an entry that could not be decoded, so no compiler reads it again.
+     */
+    private void discard(String name) {
+        try {
+            Path file = this.dir.resolve(name);
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                this.bytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            // gone already, or replaced by another compiler meanwhile
+        }
+    }
+
+    /**
+     * @return the size of the entry, 0 if there is none
+     */
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes an entry next to its final name, then renames it into place. A cache that cannot be
+     * written to only makes compiling slower, so failures are ignored.
+     */
+    private void store(String name, Content content) {
+        try {
+            Path temp = Files.createTempFile(this.dir, name, ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    content.write(out);
+                }
+                long size = Files.size(temp);
+                Path file = this.dir.resolve(name);
+                long replaced = sizeOf(file); // e.g. written by another compiler meanwhile
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                if (this.bytes.addAndGet(size - replaced) > this.maxBytes) {
+                    evict();
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // the entry is simply not cached
+        }
+    }
+
+    /**
+     * Deletes the entries used least recently until the directory is down to three quarters of its
+     * cap, so that the next few writes do not each evict again. Other compilers may be writing and
+     * evicting too, which is why the directory is scanned rather than tracked.
+     */
+    private synchronized void evict() throws IOException {
+        List<Entry> entries = scan();
+        long total = entries.stream().mapToLong(e -> e.size).sum();
+        entries.sort(Comparator.comparingLong(e -> e.modified));
+        for (Entry entry : entries) {
+            if (total <= this.maxBytes / 4 * 3) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.path);
+                total -= entry.size;
+            } catch (IOException e) {
+                // in use or gone already; leave it to the next eviction
+            }
+        }
+        this.bytes.set(total);
+    }
+
+    /**
+     * @return the entries in the directory; abandoned temporary files are deleted, others skipped
+     */
+    private List<Entry> scan() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long abandoned = System.currentTimeMillis() - ABANDONED_MILLIS;
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    if (!file.toString().endsWith(".tmp")) {
+                        entries.add(new Entry(file, attributes.size(), modified));
+                    } else if (modified < abandoned) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // evicted or renamed by another compiler meanwhile
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A file in the cache directory, as it was when scanned.
+     */
+    private static class Entry {
+        final Path path;
+        final long size;
+        final long modified;
+
+        Entry(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
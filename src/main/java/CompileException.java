@@ -0,0 +1,37 @@
+/**
+ * A lexing or parsing error in the source being compiled. Lexer.error and Parser.error throw it,
+ * so a caller compiling many sources can report one and go on; the command-line tools catch it
+ * and exit() the way they always did.
+ */
+class CompileException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int line;
+    final int pos;
+    private final String msg;
+
+    /**
+     * @param line where the error is, or -1 when it is not at a place in the source
+     */
+    CompileException(int line, int pos, String msg) {
+        super(line > 0 && pos > 0 ? String.format("%s in line %d, pos %d", msg, line, pos) : msg);
+        this.line = line;
+        this.pos = pos;
+        this.msg = msg;
+    }
+
+    /**
+     * @return the same error, lines further down, e.g. when it was found in a chunk of a larger source
+     */
+    CompileException movedDown(int lines) {
+        return this.line > 0 ? new CompileException(this.line + lines, this.pos, this.msg) : this;
+    }
+
+    /**
+     * Prints the message to System.out and exits with status 1.
+     */
+    void exit() {
+        System.out.println(getMessage());
+        System.exit(1);
+    }
+}
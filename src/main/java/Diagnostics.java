@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the errors of one compile, so a source with many mistakes is reported in one run
+ * instead of one run per mistake. Given to Lexer.collect and Parser.parse(Diagnostics), which
+ * report an error here and go on after it rather than throw it; once max errors are in, the
+ * last one is thrown after all to end the run.
+ */
+class Diagnostics {
+    private final int max;
+    private final List<CompileException> errors = new ArrayList<>();
+
+    /**
+     * @param max how many errors to collect before giving up on the source
+     */
+    Diagnostics(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1: " + max);
+        }
+        this.max = max;
+    }
+
+    /**
+     * @throws CompileException e itself, if it is the max-th error
+     */
+    void report(CompileException e) {
+        this.errors.add(e);
+        if (full()) {
+            throw e;
+        }
+    }
+
+    /**
+     * @return true once max errors have been reported; an error thrown then has already been reported
+     */
+    boolean full() {
+        return this.errors.size() >= this.max;
+    }
+
+    boolean hasErrors() {
+        return !this.errors.isEmpty();
+    }
+
+    /**
+     * @return the errors in the order they were found, which is their order in the source
+     */
+    List<CompileException> errors() {
+        return this.errors;
+    }
+
+    /**
+     * @return one line per error, and a last one if it stopped at max
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (CompileException e : this.errors) {
+            sb.append(e.getMessage()).append('\n');
+        }
+        if (full()) {
+            sb.append("Stopped after ").append(this.max).append(" errors\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps the tokens of a source up to date while it is edited, without re-lexing all of it.
+ * An edit re-lexes from the last token that ends before the edit, which is far enough back that
+ * a comment or string the edit opens or closes is scanned from its start. Lexing stops as soon as
+ * it produces a token equal to an old token past the edit, at the same shifted offset: from there on
+ * the text, and so the tokens, are the same as before. Those old tokens are kept, with their offsets,
+ * lines and positions moved by what the edit inserted or removed.
+ */
+class IncrementalLexer {
+    private String source;
+    private SymbolTable symbols;
+    private int liveSymbols; // size of the table when it last held only the names the tokens use
+    private final ArrayList<Lexer.Token> tokens = new ArrayList<>();
+    private int relexed;
+    private int changedFrom, changedOldTo, changedTo; // token range the last edit replaced
+
+    IncrementalLexer(String source) {
+        this.source = source;
+        Lexer lexer = new Lexer(source);
+        this.symbols = lexer.symbols();
+        Lexer.Token t;
+        do {
+            t = lexer.getToken();
+            this.tokens.add(t);
+        } while (t.tokentype != Lexer.TokenType.End_of_input);
+        this.relexed = this.tokens.size();
+        this.liveSymbols = this.symbols.size();
+    }
+
+    /**
+     * @return the current tokens, ending with End_of_input; tokens outside an edit stay the same objects
+     */
+    List<Lexer.Token> tokens() {
+        return this.tokens;
+    }
+
+    /**
+     * @return the table the tokens' symbol ids refer to; an edit may replace it with a smaller one
+     */
+    SymbolTable symbols() {
+        return this.symbols;
+    }
+
+    String source() {
+        return this.source;
+    }
+
+    /**
+     * @return how many tokens the last edit (or the constructor) actually scanned
+     */
+    int relexed() {
+        return this.relexed;
+    }
+
+    /**
+     * @return index of the first token the last edit replaced
+     */
+    int changedFrom() {
+        return this.changedFrom;
+    }
+
+    /**
+     * @return index just past the tokens that replaced them; later tokens are the old ones, moved
+     */
+    int changedTo() {
+        return this.changedTo;
+    }
+
+    /**
+     * @return index, before the last edit, just past the tokens it replaced
+     */
+    int changedOldTo() {
+        return this.changedOldTo;
+    }
+
+    /**
+     * Replaces removed chars at offset with inserted, and brings the tokens up to date.
+     * @throws CompileException if the edited source does not lex, in which case nothing changes
+     */
+    void edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > this.source.length()) {
+            throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " outside source of length " + this.source.length());
+        }
+        String source = this.source.substring(0, offset) + inserted + this.source.substring(offset + removed);
+        int delta = inserted.length() - removed;
+        int editEnd = offset + inserted.length(); // in the new source
+
+        // restart at the last token ending strictly before the edit; anything touching it may merge with the edit
+        int restart = lastTokenEndingBefore(offset);
+        Lexer lexer;
+        if (restart < 0) {
+            restart = 0;
+            lexer = new Lexer(source, 0, 1, 0, '\u0000', this.symbols);
+        } else {
+            Lexer.Token t = this.tokens.get(restart);
+            lexer = new Lexer(source, t.offset, t.line, t.pos, prevChar(source, t.offset), this.symbols);
+        }
+
+        List<Lexer.Token> fresh = new ArrayList<>();
+        int old = restart;
+        this.relexed = 0;
+        while (true) {
+            Lexer.Token t = lexer.getToken();
+            this.relexed++;
+            if (t.offset >= editEnd) {
+                // past the edit: is there an old token at the same place, now shifted by delta?
+                while (old < this.tokens.size() && this.tokens.get(old).offset + delta < t.offset) {
+                    old++;
+                }
+                if (old < this.tokens.size() && this.tokens.get(old).offset >= offset + removed) {
+                    Lexer.Token o = this.tokens.get(old);
+                    if (o.offset + delta == t.offset && o.tokentype == t.tokentype && o.length == t.length
+                            && Objects.equals(o.value, t.value)) {
+                        shift(old, delta, t.line - o.line, t.pos - o.pos);
+                        break;
+                    }
+                }
+            }
+            fresh.add(t);
+            if (t.tokentype == Lexer.TokenType.End_of_input) {
+                old = this.tokens.size();
+                break;
+            }
+        }
+        this.source = source;
+        List<Lexer.Token> replaced = this.tokens.subList(restart, old);
+        replaced.clear();
+        replaced.addAll(fresh);
+        this.changedFrom = restart;
+        this.changedOldTo = old;
+        this.changedTo = restart + fresh.size();
+        if (this.symbols.size() > 2 * this.liveSymbols + 64) {
+            pruneSymbols();
+        }
+    }
+
+    /**
+     * Every edit interns what it lexes, including names that were only half typed, and the table
+     * never forgets one. Once most of it is such leftovers, the names the tokens still use are
+     * interned into a fresh table and the tokens given their new ids. Waiting until the table has
+     * more than doubled keeps that rare while bounding it by the names in use.
+     */
+    private void pruneSymbols() {
+        SymbolTable symbols = new Lexer("").symbols(); // holds just the keywords
+        for (Lexer.Token t : this.tokens) {
+            if (t.symbol >= 0) {
+                t.symbol = symbols.intern(t.value);
+                t.value = symbols.name(t.symbol);
+            }
+        }
+        this.symbols = symbols;
+        this.liveSymbols = symbols.size();
+    }
+
+    /**
+     * @return index of the last token that ends before offset, -1 if there is none
+     */
+    private int lastTokenEndingBefore(int offset) {
+        int lo = 0, hi = this.tokens.size() - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Lexer.Token t = this.tokens.get(mid);
+            if (t.offset + t.length < offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the last non-whitespace char before offset, what the lexer's prev holds there
+     */
+    private static char prevChar(String source, int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = source.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c;
+            }
+        }
+        return '\u0000';
+    }
+
+    /**
+     * Moves the old tokens from index first on by the edit. Only the tokens on the same line as
+     * tokens[first] change position; every later line starts afresh after its newline.
+     */
+    private void shift(int first, int delta, int lineDelta, int posDelta) {
+        int line = this.tokens.get(first).line;
+        for (int i = first; i < this.tokens.size(); i++) {
+            Lexer.Token t = this.tokens.get(i);
+            if (t.line == line) {
+                t.pos += posDelta;
+            }
+            t.line += lineDelta;
+            t.offset += delta;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the AST of a source up to date while it is edited, reparsing only the top-level statements
+ * an edit touched. Each top-level statement is keyed by the range of tokens it was parsed from;
+ * statements outside the tokens IncrementalLexer replaced keep their subtrees, and only their ranges
+ * move. Reparsing starts at the statement holding the first replaced token, which, since the lexer
+ * restarts at the last token before the edit, is also the if an else typed after it belongs to,
+ * and goes on until a statement ends where an old statement past the edit starts.
+ * The tree has the same shape Parser.parse() builds, and is updated in place.
+ */
+class IncrementalParser {
+    private final IncrementalLexer lexer;
+    private Parser.Node[] spine = new Parser.Node[64]; // spine[k] is the nd_Sequence holding statement k
+    private int[] starts = new int[65];                // index of each statement's first token, then End_of_input's
+    private int count;
+    private int reparsed;
+    private boolean stale; // a reparse failed, so the statements no longer match the tokens
+
+    IncrementalParser(String source) {
+        this.lexer = new IncrementalLexer(source);
+        parseAll();
+    }
+
+    IncrementalLexer lexer() {
+        return this.lexer;
+    }
+
+    /**
+     * @return the AST, as Parser.parse() would build it for the current source
+     */
+    Parser.Node root() {
+        return this.count == 0 ? null : this.spine[this.count - 1];
+    }
+
+    /**
+     * @return how many top-level statements the last edit (or the constructor) actually parsed
+     */
+    int reparsed() {
+        return this.reparsed;
+    }
+
+    /**
+     * Applies an edit to the source, see IncrementalLexer.edit, and brings the AST up to date.
+     * @throws CompileException if the edited source does not lex or parse; the next edit then
+     * parses the whole source again
+     */
+    void edit(int offset, int removed, String inserted) {
+        this.lexer.edit(offset, removed, inserted);
+        if (this.stale) {
+            parseAll();
+            return;
+        }
+        // the statement holding the first replaced token, or End_of_input if it is that
+        int first = Arrays.binarySearch(this.starts, 0, this.count + 1, this.lexer.changedFrom());
+        if (first < 0) {
+            first = -first - 2;
+        }
+        try {
+            reparse(first, this.lexer.changedOldTo(), this.lexer.changedTo());
+        } catch (CompileException e) {
+            this.stale = true;
+            throw e;
+        }
+    }
+
+    private void parseAll() {
+        // as if every token replaced the End_of_input of an empty source
+        this.count = 0;
+        this.starts[0] = 0;
+        this.stale = true;
+        reparse(0, 1, this.lexer.tokens().size());
+        this.stale = false;
+    }
+
+    /**
+     * Parses statements from statement first on, until one ends where an old statement that is past
+     * the replaced tokens starts; that statement and the ones after it are kept.
+     * @param oldTo index, in the old tokens, just past the replaced ones
+     * @param newTo index, in the new tokens, just past the ones that replaced them
+     */
+    private void reparse(int first, int oldTo, int newTo) {
+        int delta = newTo - oldTo;
+        Parser parser = new Parser(this.lexer.tokens());
+        Parser.Node[] spine = Arrays.copyOf(this.spine, Math.max(first, 16));
+        int[] starts = Arrays.copyOf(this.starts, Math.max(first, 16) + 1);
+        int n = first;
+        int index = this.starts[first];
+        int kept = this.count; // first old statement that is kept
+        this.reparsed = 0;
+        while (this.lexer.tokens().get(index).tokentype != Lexer.TokenType.End_of_input) {
+            if (index >= newTo) {
+                int old = Arrays.binarySearch(this.starts, first, this.count + 1, index - delta);
+                if (old >= 0 && this.starts[old] >= oldTo) {
+                    kept = old;
+                    break;
+                }
+            }
+            Parser.Node statement = parser.stmt(index);
+            this.reparsed++;
+            if (n == spine.length) {
+                spine = Arrays.copyOf(spine, n * 2);
+                starts = Arrays.copyOf(starts, n * 2 + 1);
+            }
+            spine[n] = Parser.Node.make_node(Parser.NodeType.nd_Sequence, n == 0 ? null : spine[n - 1], statement);
+            starts[n] = index;
+            n++;
+            index = parser.tokenIndex();
+        }
+
+        // relink the kept statements behind the new ones and move their token ranges
+        int total = n + this.count - kept;
+        if (total + 1 > starts.length) {
+            spine = Arrays.copyOf(spine, total + 1);
+            starts = Arrays.copyOf(starts, total + 1);
+        }
+        if (kept < this.count) {
+            this.spine[kept].left = n == 0 ? null : spine[n - 1];
+        }
+        System.arraycopy(this.spine, kept, spine, n, this.count - kept);
+        for (int k = kept; k <= this.count; k++) {
+            starts[n + k - kept] = this.starts[k] + delta;
+        }
+        this.spine = spine;
+        this.starts = starts;
+        this.count = total;
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a Parser.Node tree in-process.
+ * The tree is lowered once into small closures: every variable gets a slot in an int[] frame,
+ * each operator becomes its own Expr, and statement sequences become arrays, so running a node
+ * costs one interface call and no Map lookups, boxing or recursion along the sequence spine.
+ * Lowering walks expressions with AstWalker, and one too deep to evaluate by nested calls runs
+ * as VM code instead, so no expression depends on the thread stack.
+ * Variables start at 0, as in the Rosetta Code interpreter the language comes from.
+ */
+class Interpreter {
+    // deepest expression lowered into closures; each level is one more eval() call on the stack
+    private static final int MAX_NESTING = 256;
+
+    interface Expr {
+        int eval(int[] frame);
+    }
+
+    interface Stmt {
+        void run(int[] frame, Writer out) throws IOException;
+    }
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Stmt program;
+    private int[] frame;
+
+    /**
+     * @param root the tree from Parser.parse() or Optimizer.optimize(), may be null
+     */
+    Interpreter(Parser.Node root) {
+        this.program = stmt(root);
+        this.frame = new int[this.slots.size()];
+    }
+
+    /**
+     * Runs the program from the start with every variable reset to 0.
+     * @param out receives what the program prints; buffering it is up to the caller
+     * @throws ArithmeticException on division or modulo by zero
+     */
+    void run(Writer out) throws IOException {
+        this.frame = new int[this.slots.size()];
+        this.program.run(this.frame, out);
+        out.flush();
+    }
+
+    /**
+     * @return the variable's value after the last run, 0 if it never appears in the program
+     */
+    int get(String name) {
+        Integer slot = this.slots.get(name);
+        return slot == null ? 0 : this.frame[slot];
+    }
+
+    private int slot(String name) {
+        Integer slot = this.slots.get(name);
+        if (slot == null) {
+            slot = this.slots.size();
+            this.slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    private Stmt stmt(Parser.Node t) {
+        if (t == null) {
+            return (f, out) -> { };
+        }
+        switch (t.nt) {
+            case nd_Sequence: {
+                // the spine leans left, so collect it with a loop and run the statements from an array
+                List<Parser.Node> nodes = new ArrayList<>();
+                for (Parser.Node s = t; s != null && s.nt == Parser.NodeType.nd_Sequence; s = s.left) {
+                    if (s.right != null) {
+                        nodes.add(s.right);
+                    }
+                    if (s.left != null && s.left.nt != Parser.NodeType.nd_Sequence) {
+                        nodes.add(s.left);
+                    }
+                }
+                Stmt[] body = new Stmt[nodes.size()];
+                for (int i = 0; i < body.length; i++) {
+                    body[i] = stmt(nodes.get(body.length - 1 - i));
+                }
+                if (body.length == 1) {
+                    return body[0];
+                }
+                return (f, out) -> {
+                    for (Stmt s : body) {
+                        s.run(f, out);
+                    }
+                };
+            }
+            case nd_Assign: {
+                int slot = slot(t.left.value);
+                Expr value = expr(t.right);
+                return (f, out) -> f[slot] = value.eval(f);
+            }
+            case nd_If: {
+                Expr condition = expr(t.left);
+                Stmt then = stmt(t.right.left), otherwise = stmt(t.right.right);
+                return (f, out) -> {
+                    if (condition.eval(f) != 0) {
+                        then.run(f, out);
+                    } else {
+                        otherwise.run(f, out);
+                    }
+                };
+            }
+            case nd_While: {
+                Expr condition = expr(t.left);
+                Stmt body = stmt(t.right);
+                return (f, out) -> {
+                    while (condition.eval(f) != 0) {
+                        body.run(f, out);
+                    }
+                };
+            }
+            case nd_Prtc: {
+                Expr value = expr(t.left);
+                return (f, out) -> out.write((char) value.eval(f));
+            }
+            case nd_Prti: {
+                Expr value = expr(t.left);
+                return (f, out) -> out.write(Integer.toString(value.eval(f)));
+            }
+            case nd_Prts: {
+                String text = unescape(t.left.value);
+                return (f, out) -> out.write(text);
+            }
+            default:
+                throw new IllegalArgumentException("not a statement: " + t.nt);
+        }
+    }
+
+    /**
+     * @return t lowered into closures, or for an expression nested deeper than MAX_NESTING, into
+     * VM code: a closure calls its operands' closures, so evaluating one that deep could use up the thread stack
+     */
+    private Expr expr(Parser.Node t) {
+        if (height(t) > MAX_NESTING) {
+            Bytecode code = CodeGen.expression(t, this.slots);
+            return f -> VM.eval(code, f);
+        }
+        ArrayDeque<Expr> operands = new ArrayDeque<>();
+        AstWalker.walk(t, new AstWalker.Visitor() {
+            @Override
+            public void leave(Parser.Node node) {
+                if (node != null) {
+                    operands.push(operator(node, operands));
+                }
+            }
+        });
+        return operands.pop();
+    }
+
+    /**
+     * @return how many nodes the longest path down from t has, counted without recursion
+     */
+    private static int height(Parser.Node t) {
+        int[] depth = new int[2]; // current, deepest
+        AstWalker.walk(t, new AstWalker.Visitor() {
+            @Override
+            public boolean enter(Parser.Node node) {
+                if (node == null) {
+                    return false;
+                }
+                depth[1] = Math.max(depth[1], ++depth[0]);
+                return true;
+            }
+
+            @Override
+            public void leave(Parser.Node node) {
+                if (node != null) {
+                    depth[0]--;
+                }
+            }
+        });
+        return depth[1];
+    }
+
+    /**
+     * @param operands the closures of t's operands on top, the right one first
+     * @return the closure for t, with its operands taken off operands
+     */
+    private Expr operator(Parser.Node t, ArrayDeque<Expr> operands) {
+        switch (t.nt) {
+            case nd_Integer: {
+                int value = CodeGen.literal(t);
+                return f -> value;
+            }
+            case nd_Ident: {
+                int slot = slot(t.value);
+                return f -> f[slot];
+            }
+            case nd_Negate: {
+                Expr a = operands.pop();
+                return f -> -a.eval(f);
+            }
+            case nd_Not: {
+                Expr a = operands.pop();
+                return f -> a.eval(f) == 0 ? 1 : 0;
+            }
+            default:
+                break;
+        }
+        Expr b = operands.pop(), a = operands.pop();
+        switch (t.nt) {
+            case nd_Mul:
+                return f -> a.eval(f) * b.eval(f);
+            case nd_Div:
+                return f -> a.eval(f) / b.eval(f);
+            case nd_Mod:
+                return f -> a.eval(f) % b.eval(f);
+            case nd_Add:
+                return f -> a.eval(f) + b.eval(f);
+            case nd_Sub:
+                return f -> a.eval(f) - b.eval(f);
+            case nd_Lss:
+                return f -> a.eval(f) < b.eval(f) ? 1 : 0;
+            case nd_Leq:
+                return f -> a.eval(f) <= b.eval(f) ? 1 : 0;
+            case nd_Gtr:
+                return f -> a.eval(f) > b.eval(f) ? 1 : 0;
+            case nd_Geq:
+                return f -> a.eval(f) >= b.eval(f) ? 1 : 0;
+            case nd_Eql:
+                return f -> a.eval(f) == b.eval(f) ? 1 : 0;
+            case nd_Neq:
+                return f -> a.eval(f) != b.eval(f) ? 1 : 0;
+            case nd_And:
+                return f -> a.eval(f) != 0 && b.eval(f) != 0 ? 1 : 0;
+            case nd_Or:
+                return f -> a.eval(f) != 0 || b.eval(f) != 0 ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("not an expression: " + t.nt);
+        }
+    }
+
+    /**
+     * @param s a string literal as the lexer keeps it, escapes included
+     * @return the text it prints, with \n and \\ replaced
+     */
+    static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        // runs a source file, count.c by default; --optimize simplifies the AST first
+        boolean optimize = Arrays.asList(args).contains("--optimize");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+        try {
+            Parser.Node t = new Parser(Lexer.map(path)).parse();
+            if (optimize) {
+                t = Optimizer.optimize(t);
+            }
+            new Interpreter(t).run(new BufferedWriter(new OutputStreamWriter(System.out), 8192));
+        } catch (NoSuchFileException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } catch (ArithmeticException e) {
+            new CompileException(-1, -1, "Runtime error: " + e.getMessage()).exit();
+        } catch (CompileException e) {
+            e.exit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,632 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compiles a Parser.Node tree straight into a JVM class, so HotSpot can optimize the program like Java code.
+ * The class has one method, BiConsumer.accept(Writer out, int[] variables). Every variable is an int local,
+ * conditions branch directly on if_icmp instructions, and a while loop is a real backward branch.
+ * Expressions are lowered from a stack of pending steps rather than by recursion, so how deep they
+ * nest is limited by the 64KB method, not by the thread stack.
+ * The classfile is written by hand, with no library, as version 49 (Java 5) so no StackMapTable is needed.
+ * Each program gets its own ClassLoader, so the class can be unloaded once the program is dropped.
+ * A JVM method holds at most 64KB of code; larger programs are rejected, and VM can run them instead.
+ */
+class JvmCompiler {
+    private static final String CLASS_NAME = "CompiledProgram";
+    private static final int FIRST_VARIABLE = 3; // locals 0-2 are this, out and the variables array
+
+    // opcodes used below, from the JVM specification
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13,
+            ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, IALOAD = 0x2e, ISTORE = 0x36,
+            ASTORE_1 = 0x4c, ASTORE_2 = 0x4d, IASTORE = 0x4f, IADD = 0x60, ISUB = 0x64, IMUL = 0x68,
+            IDIV = 0x6c, IREM = 0x70, INEG = 0x74, IFEQ = 0x99, IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0,
+            IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, RETURN = 0xb1,
+            INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, CHECKCAST = 0xc0, WIDE = 0xc4;
+
+    /**
+     * Thrown by compile() for a program that does not fit in one JVM class; VM can run it instead.
+     */
+    static class TooLargeException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(String message) {
+            super(message);
+        }
+
+        TooLargeException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * A compiled program, ready to run any number of times.
+     */
+    static class Program {
+        private final BiConsumer<Writer, int[]> code;
+        private final String[] variables;
+        private int[] data;
+
+        Program(BiConsumer<Writer, int[]> code, String[] variables) {
+            this.code = code;
+            this.variables = variables;
+            this.data = new int[variables.length];
+        }
+
+        /**
+         * Runs the program from the start with every variable reset to 0.
+         * @param out receives what the program prints; buffering it is up to the caller
+         * @throws ArithmeticException on division or modulo by zero
+         */
+        void run(Writer out) throws IOException {
+            this.data = new int[this.variables.length];
+            this.code.accept(out, this.data); // the generated method lets the Writer's IOException through
+            out.flush();
+        }
+
+        /**
+         * @return the variable's value after the last run, 0 if it never appears in the program
+         */
+        int get(String name) {
+            int slot = Arrays.asList(this.variables).indexOf(name);
+            return slot < 0 ? 0 : this.data[slot];
+        }
+    }
+
+    /**
+     * A branch target; branches to it are patched once its position is known.
+     */
+    private static class Label {
+        private int position = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    private final ConstantPool pool = new ConstantPool();
+    private final Map<String, Integer> variables = new HashMap<>();
+    private final List<Label> labels = new ArrayList<>();
+    private byte[] code = new byte[1024];
+    private int size;
+    private int maxStack;
+    private final ArrayDeque<Runnable> work = new ArrayDeque<>(); // lowering steps still to run, next on top
+
+    /**
+     * @param root the tree from Parser.parse() or Optimizer.optimize(), may be null
+     * @throws TooLargeException if the program does not fit in one JVM method
+     */
+    static Program compile(Parser.Node root) {
+        JvmCompiler compiler = new JvmCompiler();
+        byte[] classFile = compiler.classFile(root);
+        String[] variables = new String[compiler.variables.size()];
+        compiler.variables.forEach((name, slot) -> variables[slot] = name);
+        try {
+            Class<?> cls = new Loader().define(classFile);
+            @SuppressWarnings("unchecked")
+            BiConsumer<Writer, int[]> code = (BiConsumer<Writer, int[]>) cls.getDeclaredConstructor().newInstance();
+            return new Program(code, variables);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(JvmCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] classFile) {
+            return defineClass(CLASS_NAME, classFile, 0, classFile.length);
+        }
+    }
+
+    private byte[] classFile(Parser.Node root) {
+        // accept(Object out, Object variables): cast the arguments, load every variable into its local
+        emit(ALOAD_1);
+        emit(CHECKCAST);
+        emit2(this.pool.classRef("java/io/Writer"));
+        emit(ASTORE_1);
+        emit(ALOAD_2);
+        emit(CHECKCAST);
+        emit2(this.pool.classRef("[I"));
+        emit(ASTORE_2);
+        int prologue = this.size;
+        stmt(root);
+        int bodyEnd = this.size;
+        // now that every variable is known, put the loads in front of the body and the stores behind it
+        byte[] body = Arrays.copyOfRange(this.code, prologue, bodyEnd);
+        this.size = prologue;
+        for (int slot = 0; slot < this.variables.size(); slot++) {
+            emit(ALOAD_2);
+            pushInt(slot);
+            emit(IALOAD);
+            local(ISTORE, FIRST_VARIABLE + slot);
+        }
+        int shift = this.size - prologue;
+        ensure(body.length);
+        System.arraycopy(body, 0, this.code, this.size, body.length);
+        this.size += body.length;
+        for (int slot = 0; slot < this.variables.size(); slot++) {
+            emit(ALOAD_2);
+            pushInt(slot);
+            local(ILOAD, FIRST_VARIABLE + slot);
+            emit(IASTORE);
+        }
+        emit(RETURN);
+        this.maxStack = Math.max(this.maxStack, 3);
+        for (Label label : this.labels) {
+            for (int branch : label.branches) {
+                int offset = label.position - branch;
+                if (offset != (short) offset) {
+                    throw new TooLargeException("program too large for one JVM method");
+                }
+                this.code[branch + shift + 1] = (byte) (offset >> 8);
+                this.code[branch + shift + 2] = (byte) offset;
+            }
+        }
+        if (this.size > 65535 || this.maxStack > 65535) {
+            throw new TooLargeException("program too large for one JVM method");
+        }
+        return write();
+    }
+
+    private void stmt(Parser.Node t) {
+        if (t == null) {
+            return;
+        }
+        switch (t.nt) {
+            case nd_Sequence: {
+                List<Parser.Node> nodes = new ArrayList<>();
+                for (Parser.Node s = t; s != null && s.nt == Parser.NodeType.nd_Sequence; s = s.left) {
+                    nodes.add(s.right);
+                    if (s.left != null && s.left.nt != Parser.NodeType.nd_Sequence) {
+                        nodes.add(s.left);
+                    }
+                }
+                for (int i = nodes.size() - 1; i >= 0; i--) {
+                    stmt(nodes.get(i));
+                }
+                break;
+            }
+            case nd_Assign:
+                expr(t.right, 0);
+                local(ISTORE, FIRST_VARIABLE + slot(t.left.value));
+                break;
+            case nd_If: {
+                // nd_If(condition, nd_If(then, else))
+                Label otherwise = new Label(), end = new Label();
+                branch(t.left, false, otherwise, 0);
+                stmt(t.right.left);
+                if (t.right.right != null) {
+                    jump(GOTO, end);
+                }
+                bind(otherwise);
+                stmt(t.right.right);
+                bind(end);
+                break;
+            }
+            case nd_While: {
+                Label top = new Label(), end = new Label();
+                bind(top);
+                branch(t.left, false, end, 0);
+                stmt(t.right);
+                jump(GOTO, top);
+                bind(end);
+                break;
+            }
+            case nd_Prtc:
+                emit(ALOAD_1);
+                expr(t.left, 1);
+                invoke(INVOKEVIRTUAL, "java/io/Writer", "write", "(I)V");
+                break;
+            case nd_Prti:
+                emit(ALOAD_1);
+                expr(t.left, 1);
+                invoke(INVOKESTATIC, "java/lang/Integer", "toString", "(I)Ljava/lang/String;");
+                invoke(INVOKEVIRTUAL, "java/io/Writer", "write", "(Ljava/lang/String;)V");
+                break;
+            case nd_Prts:
+                emit(ALOAD_1);
+                constant(this.pool.string(Interpreter.unescape(t.left.value)));
+                this.maxStack = Math.max(this.maxStack, 2);
+                invoke(INVOKEVIRTUAL, "java/io/Writer", "write", "(Ljava/lang/String;)V");
+                break;
+            default:
+                throw new IllegalArgumentException("not a statement: " + t.nt);
+        }
+    }
+
+    /**
+     * Leaves the value of t on the operand stack.
+     * @param depth values already on the stack below it, for max_stack
+     */
+    private void expr(Parser.Node t, int depth) {
+        lower(() -> exprStep(t, depth));
+    }
+
+    /**
+     * Jumps to target if t's truth equals when, and falls through otherwise.
+     */
+    private void branch(Parser.Node t, boolean when, Label target, int depth) {
+        lower(() -> branchStep(t, when, target, depth));
+    }
+
+    /**
+     * Runs first and every step it schedules. Steps schedule the lowering of a node's children rather
+     * than recurse into it, so an expression may nest as deep as the parser lets it.
+     */
+    private void lower(Runnable first) {
+        this.work.push(first);
+        while (!this.work.isEmpty()) {
+            this.work.pop().run();
+        }
+    }
+
+    /**
+     * @param steps what to run next, in order, before anything scheduled earlier
+     */
+    private void schedule(Runnable... steps) {
+        for (int i = steps.length - 1; i >= 0; i--) {
+            this.work.push(steps[i]);
+        }
+    }
+
+    private void exprStep(Parser.Node t, int depth) {
+        this.maxStack = Math.max(this.maxStack, depth + 1);
+        int opcode;
+        switch (t.nt) {
+            case nd_Integer:
+                pushInt(CodeGen.literal(t));
+                return;
+            case nd_Ident:
+                local(ILOAD, FIRST_VARIABLE + slot(t.value));
+                return;
+            case nd_Negate:
+                schedule(() -> exprStep(t.left, depth), () -> emit(INEG));
+                return;
+            case nd_Mul:
+                opcode = IMUL;
+                break;
+            case nd_Div:
+                opcode = IDIV;
+                break;
+            case nd_Mod:
+                opcode = IREM;
+                break;
+            case nd_Add:
+                opcode = IADD;
+                break;
+            case nd_Sub:
+                opcode = ISUB;
+                break;
+            case nd_Not:
+            case nd_Lss:
+            case nd_Leq:
+            case nd_Gtr:
+            case nd_Geq:
+            case nd_Eql:
+            case nd_Neq:
+            case nd_And:
+            case nd_Or: {
+                // comparisons and logic become 1 or 0 by branching
+                Label isTrue = new Label(), end = new Label();
+                schedule(() -> branchStep(t, true, isTrue, depth), () -> {
+                    emit(ICONST_0);
+                    jump(GOTO, end);
+                    bind(isTrue);
+                    emit(ICONST_0 + 1);
+                    bind(end);
+                });
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("not an expression: " + t.nt);
+        }
+        int operator = opcode;
+        schedule(() -> exprStep(t.left, depth), () -> exprStep(t.right, depth + 1), () -> emit(operator));
+    }
+
+    private void branchStep(Parser.Node t, boolean when, Label target, int depth) {
+        int compare;
+        switch (t.nt) {
+            case nd_Lss:
+                compare = when ? IF_ICMPLT : IF_ICMPGE;
+                break;
+            case nd_Leq:
+                compare = when ? IF_ICMPLE : IF_ICMPGT;
+                break;
+            case nd_Gtr:
+                compare = when ? IF_ICMPGT : IF_ICMPLE;
+                break;
+            case nd_Geq:
+                compare = when ? IF_ICMPGE : IF_ICMPLT;
+                break;
+            case nd_Eql:
+                compare = when ? IF_ICMPEQ : IF_ICMPNE;
+                break;
+            case nd_Neq:
+                compare = when ? IF_ICMPNE : IF_ICMPEQ;
+                break;
+            case nd_Not:
+                schedule(() -> branchStep(t.left, !when, target, depth));
+                return;
+            case nd_And:
+            case nd_Or: {
+                // and: both must hold for true; or: either is enough
+                boolean shortCircuit = t.nt == Parser.NodeType.nd_Or;
+                if (when == shortCircuit) {
+                    schedule(() -> branchStep(t.left, when, target, depth), () -> branchStep(t.right, when, target, depth));
+                } else {
+                    Label skip = new Label();
+                    schedule(() -> branchStep(t.left, shortCircuit, skip, depth),
+                            () -> branchStep(t.right, when, target, depth), () -> bind(skip));
+                }
+                return;
+            }
+            default:
+                schedule(() -> exprStep(t, depth), () -> jump(when ? IFNE : IFEQ, target));
+                return;
+        }
+        schedule(() -> exprStep(t.left, depth), () -> exprStep(t.right, depth + 1), () -> jump(compare, target));
+    }
+
+    private int slot(String name) {
+        Integer slot = this.variables.get(name);
+        if (slot == null) {
+            slot = this.variables.size();
+            this.variables.put(name, slot);
+        }
+        return slot;
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value == (short) value) {
+            emit(SIPUSH);
+            emit2(value);
+        } else {
+            constant(this.pool.integer(value));
+        }
+    }
+
+    private void constant(int index) {
+        if (index <= 255) {
+            emit(LDC);
+            emit(index);
+        } else {
+            emit(LDC_W);
+            emit2(index);
+        }
+    }
+
+    private void local(int opcode, int index) {
+        if (index > 255) {
+            emit(WIDE);
+            emit(opcode);
+            emit2(index);
+        } else {
+            emit(opcode);
+            emit(index);
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor) {
+        emit(opcode);
+        emit2(this.pool.methodRef(owner, name, descriptor));
+    }
+
+    private void jump(int opcode, Label target) {
+        target.branches.add(this.size);
+        if (target.branches.size() == 1) {
+            this.labels.add(target);
+        }
+        emit(opcode);
+        emit2(0); // patched once the whole method is laid out
+    }
+
+    private void bind(Label label) {
+        label.position = this.size;
+    }
+
+    private void emit(int b) {
+        ensure(1);
+        this.code[this.size++] = (byte) b;
+    }
+
+    private void emit2(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private void ensure(int n) {
+        if (this.size + n > this.code.length) {
+            this.code = Arrays.copyOf(this.code, Math.max(this.code.length * 2, this.size + n));
+        }
+    }
+
+    /**
+     * Lays out the classfile around the generated method body.
+     */
+    private byte[] write() {
+        int thisClass = this.pool.classRef(CLASS_NAME);
+        int superClass = this.pool.classRef("java/lang/Object");
+        int consumer = this.pool.classRef("java/util/function/BiConsumer");
+        int objectInit = this.pool.methodRef("java/lang/Object", "<init>", "()V");
+        int codeName = this.pool.utf8("Code");
+        int initName = this.pool.utf8("<init>"), initType = this.pool.utf8("()V");
+        int acceptName = this.pool.utf8("accept");
+        int acceptType = this.pool.utf8("(Ljava/lang/Object;Ljava/lang/Object;)V");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.size + 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  // minor version
+            out.writeShort(49); // major version: Java 5, verified without stack map frames
+            this.pool.write(out);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(consumer);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            byte[] init = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+            writeMethod(out, initName, initType, codeName, 1, 1, init, init.length);
+            writeMethod(out, acceptName, acceptType, codeName, this.maxStack,
+                    FIRST_VARIABLE + this.variables.size(), this.code, this.size);
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream never throws
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+                                    int maxStack, int maxLocals, byte[] code, int length) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    /**
+     * Classfile constant pool; each distinct constant is added once.
+     */
+    private static class ConstantPool {
+        private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, STRING = 8, METHOD_REF = 10, NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1; // entry 0 is unused
+
+        int utf8(String s) {
+            Integer index = this.indexes.get("u" + s);
+            if (index == null) {
+                index = add("u" + s);
+                try {
+                    this.out.writeByte(UTF8);
+                    this.out.writeUTF(s);
+                } catch (IOException e) {
+                    throw new TooLargeException("string literal too long for a classfile constant", e);
+                }
+            }
+            return index;
+        }
+
+        int integer(int value) {
+            Integer index = this.indexes.get("i" + value);
+            if (index == null) {
+                index = add("i" + value);
+                write(INTEGER, value >>> 16, value & 0xffff);
+            }
+            return index;
+        }
+
+        int classRef(String name) {
+            return reference(CLASS, "c" + name, utf8(name), -1);
+        }
+
+        int string(String s) {
+            return reference(STRING, "s" + s, utf8(s), -1);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int nameAndType = reference(NAME_AND_TYPE, "n" + name + descriptor, utf8(name), utf8(descriptor));
+            return reference(METHOD_REF, "m" + owner + "." + name + descriptor, classRef(owner), nameAndType);
+        }
+
+        /**
+         * @param second -1 for constants with one index
+         */
+        private int reference(int tag, String key, int first, int second) {
+            Integer index = this.indexes.get(key);
+            if (index == null) {
+                index = add(key);
+                write(tag, first, second);
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            if (this.count == 65535) {
+                throw new TooLargeException("program too large for one classfile");
+            }
+            this.indexes.put(key, this.count);
+            return this.count++;
+        }
+
+        private void write(int tag, int first, int second) {
+            try {
+                this.out.writeByte(tag);
+                this.out.writeShort(first);
+                if (second >= 0) {
+                    this.out.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // a ByteArrayOutputStream never throws
+            }
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(this.count);
+            this.bytes.writeTo(to);
+        }
+    }
+
+    public static void main(String[] args) {
+        // compiles and runs a source file, count.c by default; --optimize simplifies the AST first
+        boolean optimize = Arrays.asList(args).contains("--optimize");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+        try {
+            Parser.Node t = new Parser(Lexer.map(path)).parse();
+            if (optimize) {
+                t = Optimizer.optimize(t);
+            }
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 8192);
+            Program program;
+            try {
+                program = compile(t);
+            } catch (TooLargeException e) {
+                program = null;
+            }
+            if (program != null) {
+                program.run(out);
+            } else {
+                new VM(CodeGen.generate(t)).run(out);
+            }
+        } catch (NoSuchFileException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } catch (ArithmeticException e) {
+            new CompileException(-1, -1, "Runtime error: " + e.getMessage()).exit();
+        } catch (CompileException e) {
+            e.exit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
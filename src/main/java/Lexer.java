@@ -1,10 +1,23 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * @author rosie
@@ -15,10 +28,99 @@ public class Lexer {
     private int pos;
     private int position;
     private char chr;
-    private String s;
     private char prev;
 
-    Map<String, TokenType> keywords = new HashMap<>();
+    // input is read through buffer; when reader is null the buffer holds the whole source
+    private static final int BUFFER_SIZE = 8192;
+    private Reader reader;
+    private char[] buffer;
+    private int bufferStart; // position of buffer[0] in the input
+    private int limit;       // position just past the last char held in buffer
+    private int mark = -1;   // start of the lexeme being scanned, which fill() keeps in the buffer
+
+    // set instead of buffer when lexing raw bytes, e.g. a memory-mapped file
+    private ByteBuffer bytes;
+    private int tokenStart;
+
+    // when set, getToken() refills this one Token instead of allocating a new one
+    private Token reuse;
+
+    // when set, errors are reported to it and lexing goes on after them
+    private Diagnostics diagnostics;
+
+    // keywords are interned first, so their symbol ids index KEYWORD_TYPES
+    private static final String[] KEYWORDS = {"if", "else", "print", "putc", "while"};
+    private static final TokenType[] KEYWORD_TYPES = {
+            TokenType.Keyword_if, TokenType.Keyword_else, TokenType.Keyword_print,
+            TokenType.Keyword_putc, TokenType.Keyword_while
+    };
+    private SymbolTable symbols;
+
+    // ASCII character classes, one lookup instead of the Unicode tables in Character
+    private static final byte WHITESPACE = 1, DIGIT = 2, LETTER = 4, IDENT = 8;
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    // operator DFA: ONE_CHAR[c] is the token for c alone, TWO_CHAR[c] the token when c is followed by SECOND_CHAR[c]
+    private static final TokenType[] ONE_CHAR = new TokenType[128];
+    private static final TokenType[] TWO_CHAR = new TokenType[128];
+    private static final char[] SECOND_CHAR = new char[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) {
+                CHAR_CLASS[c] |= WHITESPACE;
+            }
+            if (Character.isDigit(c)) {
+                CHAR_CLASS[c] |= DIGIT | IDENT;
+            }
+            if (Character.isLetter(c)) {
+                CHAR_CLASS[c] |= LETTER | IDENT;
+            }
+        }
+        CHAR_CLASS['_'] |= IDENT;
+
+        operator('(', TokenType.LeftParen);
+        operator(')', TokenType.RightParen);
+        operator('{', TokenType.LeftBrace);
+        operator('}', TokenType.RightBrace);
+        operator(';', TokenType.Semicolon);
+        operator(',', TokenType.Comma);
+        operator('*', TokenType.Op_multiply);
+        operator('%', TokenType.Op_mod);
+        operator('+', TokenType.Op_add);
+        operator('<', TokenType.Op_less, '=', TokenType.Op_lessequal);
+        operator('>', TokenType.Op_greater, '=', TokenType.Op_greaterequal);
+        operator('!', TokenType.Op_not, '=', TokenType.Op_notequal);
+        operator('=', TokenType.Op_assign, '=', TokenType.Op_equal);
+        operator('&', null, '&', TokenType.Op_and); // a lone & or | is read as a character code
+        operator('|', null, '|', TokenType.Op_or);
+    }
+
+    private static void operator(char c, TokenType alone) {
+        ONE_CHAR[c] = alone;
+    }
+
+    private static void operator(char c, TokenType alone, char second, TokenType pair) {
+        ONE_CHAR[c] = alone;
+        SECOND_CHAR[c] = second;
+        TWO_CHAR[c] = pair;
+    }
+
+    static boolean isWhitespace(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & WHITESPACE) != 0 : Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & DIGIT) != 0 : Character.isDigit(c);
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & (LETTER | DIGIT)) != 0 : Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return c < 128 ? (CHAR_CLASS[c] & IDENT) != 0 : Character.isLetterOrDigit(c);
+    }
 
 
     static class Token {
@@ -26,12 +128,16 @@ public class Lexer {
         public String value;
         public int line;
         public int pos;
+        public int offset; // where the token starts in the input
+        public int length; // how many chars (bytes for mapped input) the token spans
+        public int symbol; // SymbolTable id of an Identifier or String, otherwise -1
 
         Token(TokenType token, String value, int line, int pos) {
             this.tokentype = token;
             this.value = value;
             this.line = line;
             this.pos = pos;
+            this.symbol = -1;
         }
 
         /**
@@ -55,47 +161,279 @@ public class Lexer {
         }
     }
 
+    /**
+     * Token kinds, with the operator precedence, associativity and AST node type the parser needs
+     */
     static enum TokenType {
-        End_of_input, Op_multiply, Op_divide, Op_mod, Op_add, Op_subtract,
-        Op_negate, Op_not, Op_less, Op_lessequal, Op_greater, Op_greaterequal,
-        Op_equal, Op_notequal, Op_assign, Op_and, Op_or, Keyword_if,
-        Keyword_else, Keyword_while, Keyword_print, Keyword_putc, LeftParen, RightParen,
-        LeftBrace, RightBrace, Semicolon, Comma, Identifier, Integer, String
+        End_of_input(false, false, false, -1, Parser.NodeType.nd_None),
+        Op_multiply(false, true, false, 13, Parser.NodeType.nd_Mul),
+        Op_divide(false, true, false, 13, Parser.NodeType.nd_Div),
+        Op_mod(false, true, false, 13, Parser.NodeType.nd_Mod),
+        Op_add(false, true, false, 12, Parser.NodeType.nd_Add),
+        Op_subtract(false, true, false, 12, Parser.NodeType.nd_Sub),
+        Op_negate(false, false, true, 14, Parser.NodeType.nd_Negate),
+        Op_not(false, false, true, 14, Parser.NodeType.nd_Not),
+        Op_less(false, true, false, 10, Parser.NodeType.nd_Lss),
+        Op_lessequal(false, true, false, 10, Parser.NodeType.nd_Leq),
+        Op_greater(false, true, false, 10, Parser.NodeType.nd_Gtr),
+        Op_greaterequal(false, true, false, 10, Parser.NodeType.nd_Geq),
+        Op_equal(false, true, true, 9, Parser.NodeType.nd_Eql),
+        Op_notequal(false, true, false, 9, Parser.NodeType.nd_Neq),
+        Op_assign(false, false, false, -1, Parser.NodeType.nd_Assign),
+        Op_and(false, true, false, 5, Parser.NodeType.nd_And),
+        Op_or(false, true, false, 4, Parser.NodeType.nd_Or),
+        Keyword_if(false, false, false, -1, Parser.NodeType.nd_If),
+        Keyword_else(false, false, false, -1, Parser.NodeType.nd_None),
+        Keyword_while(false, false, false, -1, Parser.NodeType.nd_While),
+        Keyword_print(false, false, false, -1, Parser.NodeType.nd_None),
+        Keyword_putc(false, false, false, -1, Parser.NodeType.nd_None),
+        LeftParen(false, false, false, -1, Parser.NodeType.nd_None),
+        RightParen(false, false, false, -1, Parser.NodeType.nd_None),
+        LeftBrace(false, false, false, -1, Parser.NodeType.nd_None),
+        RightBrace(false, false, false, -1, Parser.NodeType.nd_None),
+        Semicolon(false, false, false, -1, Parser.NodeType.nd_None),
+        Comma(false, false, false, -1, Parser.NodeType.nd_None),
+        Identifier(false, false, false, -1, Parser.NodeType.nd_Ident),
+        Integer(false, false, false, -1, Parser.NodeType.nd_Integer),
+        String(false, false, false, -1, Parser.NodeType.nd_String);
+
+        private final int precedence;
+        private final boolean right_assoc;
+        private final boolean is_binary;
+        private final boolean is_unary;
+        private final Parser.NodeType node_type;
+
+        TokenType(boolean right_assoc, boolean is_binary, boolean is_unary, int precedence, Parser.NodeType node) {
+            this.right_assoc = right_assoc;
+            this.is_binary = is_binary;
+            this.is_unary = is_unary;
+            this.precedence = precedence;
+            this.node_type = node;
+        }
+
+        boolean isRightAssoc() {
+            return this.right_assoc;
+        }
+
+        boolean isBinary() {
+            return this.is_binary;
+        }
+
+        boolean isUnary() {
+            return this.is_unary;
+        }
+
+        int getPrecedence() {
+            return this.precedence;
+        }
+
+        Parser.NodeType getNodeType() {
+            return this.node_type;
+        }
+
     }
 
+    /**
+     * @throws CompileException always, with msg and where in the source it happened
+     */
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
-        }
-        System.exit(1);
+        throw new CompileException(line, pos, msg);
     }
 
     Lexer(String source) {
+        reset(source);
+    }
+
+    /**
+     * Resumes lexing in the middle of a source, at the start of a token an earlier run produced,
+     * e.g. to re-lex only the part of a source that was edited.
+     * @param position offset of the token in source
+     * @param line     the token's line
+     * @param pos      the token's position in its line
+     * @param prev     the last non-whitespace char before position, which decides whether '-' negates
+     * @param symbols  the earlier lexer's table, so the ids in old and new tokens mean the same thing
+     */
+    Lexer(String source, int position, int line, int pos, char prev, SymbolTable symbols) {
+        this.line = line;
+        this.pos = pos;
+        this.position = position;
+        this.prev = prev;
+        this.buffer = source.toCharArray();
+        this.bufferStart = 0;
+        this.limit = this.buffer.length;
+        this.chr = position < this.limit ? this.buffer[position] : '\u0000';
+        this.symbols = symbols;
+    }
+
+    /**
+     * Streams the source through a fixed-size buffer that is refilled in getNextChar(),
+     * so memory use does not depend on the size of the input.
+     * Positions start at 1 on the first line, the same as main's old padded source.
+     * @param reader the source to tokenize, closed by the caller
+     */
+    Lexer(Reader reader) {
+        reset(reader);
+    }
+
+    /**
+     * Scans ASCII/UTF-8 bytes in place without decoding them into a String.
+     * Identifier, Integer and String tokens get a null value; read them with value(Token),
+     * which returns a slice of the bytes rather than a copy.
+     * Only strings and comments may hold non-ASCII text. Anywhere else, e.g. in an identifier, it is
+     * an error here where Lexer(Reader) may accept it, so read such sources through a Reader.
+     * Positions count chars as Lexer(Reader) does, not bytes, and start at 1 on the first line.
+     * @param bytes the source, from its position to its limit
+     */
+    Lexer(ByteBuffer bytes) {
+        reset(bytes);
+    }
+
+    /**
+     * Scans one piece of a larger mapped source, see ParallelLexer. Lines count from 1 at the start of the piece.
+     * @param prev the last non-whitespace char before the piece, which decides whether a leading '-' negates
+     */
+    Lexer(ByteBuffer bytes, char prev) {
+        this(bytes);
+        this.prev = prev;
+    }
+
+    /**
+     * @param path the source file to memory-map
+     * @return a Lexer scanning the mapped file, which stays mapped after the channel is closed
+     */
+    static Lexer map(Path path) throws IOException {
+        return new Lexer(mapBytes(path));
+    }
+
+    /**
+     * @param path the source file to memory-map
+     * @return the file's bytes, which stay mapped after the channel is closed
+     */
+    static MappedByteBuffer mapBytes(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Points the lexer at a new source, as if it had just been made with Lexer(String).
+     * The buffer is kept if the source fits in it, so a lexer taken from a pool allocates little
+     * more than the tokens' text and a new symbol table. The old table is left to the tokens and
+     * TokenBuffers that still refer to it, so they keep their names.
+     * @return this lexer
+     */
+    Lexer reset(String source) {
+        int n = source.length();
+        if (this.buffer == null || this.buffer.length < n) {
+            this.buffer = new char[n];
+        }
+        source.getChars(0, n, this.buffer, 0);
+        if (Metrics.ENABLED) {
+            Metrics.bytesRead(n);
+        }
+        this.reader = null;
+        this.bytes = null;
+        this.bufferStart = 0;
+        this.limit = n;
+        restart(0);
+        this.chr = n == 0 ? '\u0000' : this.buffer[0];
+        return this;
+    }
+
+    /**
+     * Points the lexer at a new source, as if it had just been made with Lexer(Reader).
+     * @return this lexer
+     */
+    Lexer reset(Reader reader) {
+        if (this.buffer == null || this.buffer.length < BUFFER_SIZE) {
+            this.buffer = new char[BUFFER_SIZE];
+        }
+        this.reader = reader;
+        this.bytes = null;
+        this.bufferStart = 0;
+        this.limit = 0;
+        restart(-1);
+        getNextChar();
+        return this;
+    }
+
+    /**
+     * Points the lexer at a new source, as if it had just been made with Lexer(ByteBuffer).
+     * @return this lexer
+     */
+    Lexer reset(ByteBuffer bytes) {
+        this.reader = null;
+        this.bytes = bytes.slice();
+        this.limit = this.bytes.limit();
+        if (Metrics.ENABLED) {
+            Metrics.bytesRead(this.limit);
+        }
+        restart(-1);
+        getNextChar();
+        return this;
+    }
+
+    /**
+     * Clears what the last source left behind: the cursor, prev and the symbols, which get a table of their own.
+     * @param position where the first char is, -1 when getNextChar() reads it
+     */
+    private void restart(int position) {
         this.line = 1;
         this.pos = 0;
-        this.position = 0;
-        this.s = source;
-        this.chr = this.s.charAt(0);
-        this.keywords.put("if", TokenType.Keyword_if);
-        this.keywords.put("else", TokenType.Keyword_else);
-        this.keywords.put("print", TokenType.Keyword_print);
-        this.keywords.put("putc", TokenType.Keyword_putc);
-        this.keywords.put("while", TokenType.Keyword_while);
+        this.position = position;
+        this.chr = ' ';
+        this.prev = '\u0000';
+        this.mark = -1;
+        this.tokenStart = 0;
+        this.diagnostics = null;
+        this.symbols = new SymbolTable();
+        for (String keyword : KEYWORDS) {
+            this.symbols.intern(keyword);
+        }
+    }
+
+    /**
+     * Makes getToken() report errors to diagnostics and skip the bad input, instead of throwing.
+     * Until a reset, that is, which goes back to throwing.
+     * @return this lexer
+     */
+    Lexer collect(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        return this;
+    }
 
+    /**
+     * @return the table holding every identifier and string this lexer has seen
+     */
+    SymbolTable symbols() {
+        return this.symbols;
     }
 
 
     Token follow(char expect, TokenType ifyes, TokenType ifno, int line, int pos) {
         if (getNextChar() == expect) {
             getNextChar();
-            return new Token(ifyes, "", line, pos);
+            return token(ifyes, "", line, pos);
         }
         if (ifno == TokenType.End_of_input) {
             error(line, pos, String.format("follow: unrecognized character: (%d) '%c'", (int) this.chr, this.chr));
         }
-        return new Token(ifno, "", line, pos);
+        return token(ifno, "", line, pos);
+    }
+
+    private Token token(TokenType type, String value, int line, int pos) {
+        if (this.reuse == null) {
+            return new Token(type, value, line, pos);
+        }
+        this.reuse.tokentype = type;
+        this.reuse.value = value;
+        this.reuse.line = line;
+        this.reuse.pos = pos;
+        this.reuse.symbol = -1;
+        return this.reuse;
     }
 
     /**
@@ -104,6 +442,11 @@ public class Lexer {
      * @return A token representing the parsed character literal
      */
     Token char_lit(int line, int pos) { // handle character literals
+        if (chr >= 0x80 && this.bytes != null) {
+            skipPast('\'');
+            error(line, pos, "non-ASCII character constant in mapped input");
+            return null;
+        }
         int n = (int) chr;
         chr = getNextChar();
 
@@ -119,7 +462,9 @@ public class Lexer {
                     n = '\\'; // Treat '\\' as a single backslash
                     break;
                 default:
-                    error(line, pos, String.format("unknown escape sequence \\%c", chr));
+                    String msg = String.format("unknown escape sequence \\%c", chr);
+                    skipPast('\'');
+                    error(line, pos, msg);
                     break;
             }
             chr = getNextChar(); // Move past the escape sequence character
@@ -128,11 +473,25 @@ public class Lexer {
         }
         // Ensure there's only one character in the literal, which should be the closing quote
         if (chr != '\'') {
+            skipPast('\'');
             error(line, pos, "multi-character constant");
             return null;
         }
         chr = getNextChar(); // Move past the closing quote
-        return new Token(TokenType.Integer, "" + n, line, pos);
+        return token(TokenType.Integer, "" + n, line, pos);
+    }
+
+    /**
+     * Skips the rest of a bad literal, up to and including its closing quote or to the end of its line,
+     * so that a lexer collecting Diagnostics goes on after it.
+     */
+    private void skipPast(char quote) {
+        while (this.chr != quote && this.chr != '\n' && this.chr != '\u0000') {
+            getNextChar();
+        }
+        if (this.chr == quote) {
+            getNextChar();
+        }
     }
 
     /**
@@ -142,18 +501,23 @@ public class Lexer {
      * @return A token represented the parsed string literal
      */
     Token string_lit(char start, int line, int pos) { // handle string literals
-        StringBuilder result = new StringBuilder();
+        int first = this.position + 1;
+        this.mark = first;
         char c = getNextChar(); // Move past the opening quote
         while (c != start) {
             if (c == '\u0000') {
+                this.mark = -1;
                 error(line, pos, "End of file in string literal");
                 return null;
             }
-            result.append(c);
             c = getNextChar(); // Move to the next character
         }
+        int symbol = intern(first, this.position);
+        this.mark = -1;
         getNextChar(); // Move past the closing quote
-        return new Token(TokenType.String, result.toString(), line, pos);
+        Token t = token(TokenType.String, this.bytes == null ? this.symbols.name(symbol) : null, line, pos);
+        t.symbol = symbol;
+        return t;
     }
 
     /**
@@ -164,14 +528,14 @@ public class Lexer {
     Token div_or_comment(int line, int pos) { // handle division or comments
         // If the next character is not '*' or '/', it's a division operator
         if (chr != '*' && chr != '/') {
-            return new Token(TokenType.Op_divide, "", line, pos);
+            return token(TokenType.Op_divide, "", line, pos);
         } else {
             if (chr == '/') {
                 // Ignore characters until the end of the line
                 while (chr != '\n' && chr != '\u0000') {
                     chr = getNextChar();
                 }
-                return getToken(); // Return the next token
+                return scanToken(); // Return the next token
             } else if (chr == '*') {
                 chr = getNextChar(); // Move past the '*'
 
@@ -192,7 +556,7 @@ public class Lexer {
 
                 // Move past the '/'
                 chr = getNextChar();
-                return getToken(); // Return the next token after the comment
+                return scanToken(); // Return the next token after the comment
             }
         }
 
@@ -211,33 +575,125 @@ public class Lexer {
      * @return A token representing either an identifier, integer or keyword
      */
     Token identifier_or_integer(int line, int pos) { // handle identifiers and integers
-        String text = "";
-        while (Character.isLetterOrDigit(chr) || chr == '_') {
-            text += this.chr; // Add character to the text
+        // the text is only read back from the input once its end is known
+        int start = this.position;
+        this.mark = start;
+        boolean ascii = true;
+        // mapped input takes in every non-ASCII byte, so a UTF-8 name is reported whole
+        while (isIdentifierChar(chr) || chr >= 0x80 && this.bytes != null) {
+            ascii &= chr < 0x80;
             getNextChar(); // Move to the next character
         }
+        int end = Math.min(this.position, this.limit);
+        try {
+            if (!ascii && this.bytes != null) {
+                error(line, pos, "Non-ASCII Variable Name " + text(start, end) + " in mapped input");
+                return null;
+            }
+            if (start == end) {
+                error(line, pos, "Unrecognized Variable Name");
+                return null;
+            }
 
-
-        if (Character.isDigit(text.charAt(0))) {
-            for (int i = 0; i < text.length(); i++) {
-                if (!Character.isDigit(text.charAt(i))) {
-                    error(line, pos, "Invalid Variable Name " + text);
-                    return null;
+            if (isDigit(charAt(start))) {
+                for (int i = start; i < end; i++) {
+                    if (!isDigit(charAt(i))) {
+                        error(line, pos, "Invalid Variable Name " + text(start, end));
+                        return null;
+                    }
                 }
+                return token(TokenType.Integer, this.bytes == null ? text(start, end) : null, line, pos);
+            }
+
+            // one lookup both finds keywords and interns identifiers
+            int symbol = intern(start, end);
+            if (symbol < KEYWORD_TYPES.length) {
+                return token(KEYWORD_TYPES[symbol], this.symbols.name(symbol), line, pos);
             }
-            return new Token(TokenType.Integer, text, line, pos);
+            Token t = token(TokenType.Identifier, this.bytes == null ? this.symbols.name(symbol) : null, line, pos);
+            t.symbol = symbol;
+            return t;
+        } finally {
+            this.mark = -1;
+        }
+    }
+
+    /**
+     * @param position a position between mark and limit
+     */
+    private char charAt(int position) {
+        return this.bytes != null
+                ? (char) (this.bytes.get(position) & 0xff)
+                : this.buffer[position - this.bufferStart];
+    }
+
+    /**
+     * @return a new String holding the input from start to end, which must be between mark and limit
+     */
+    private String text(int start, int end) {
+        return this.bytes != null
+                ? new Slice(this.bytes, start, end - start).toString()
+                : new String(this.buffer, start - this.bufferStart, end - start);
+    }
+
+    /**
+     * @return the symbol id of the input from start to end, which must be between mark and limit
+     */
+    private int intern(int start, int end) {
+        return this.bytes != null
+                ? this.symbols.intern(this.bytes, start, end - start)
+                : this.symbols.intern(this.buffer, start - this.bufferStart, end - start);
+    }
+
+    /**
+     * A view of part of the mapped input. Nothing is copied until toString() decodes it.
+     */
+    static class Slice implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int offset;
+        private final int length;
+
+        Slice(ByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
         }
 
-        if (keywords.containsKey(text)) {
-            return new Token(keywords.get(text), text, line, pos);
+        @Override
+        public int length() {
+            return this.length;
         }
 
-        if (Character.isLetter(text.charAt(0)) || text.charAt(0) == '_') {
-            return new Token(TokenType.Identifier, text, line, pos);
-        } else {
-            error(line, pos, "Unrecognized Variable Name");
-            return null;
+        @Override
+        public char charAt(int index) {
+            return (char) (this.bytes.get(this.offset + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Slice(this.bytes, this.offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            ByteBuffer view = this.bytes.duplicate();
+            view.limit(this.offset + this.length).position(this.offset);
+            return StandardCharsets.UTF_8.decode(view).toString();
+        }
+    }
+
+    /**
+     * @param t a token produced by this lexer
+     * @return the token's value, as a slice of the input when the lexer left it null
+     */
+    CharSequence value(Token t) {
+        if (t.value != null) {
+            return t.value;
         }
+        if (t.tokentype == TokenType.String) {
+            return new Slice(this.bytes, t.offset + 1, t.length - 2); // without the quotes
+        }
+        return new Slice(this.bytes, t.offset, t.length);
     }
 
     /**
@@ -250,129 +706,89 @@ public class Lexer {
         char current = chr;
         int ascii = (int)current;
         chr = getNextChar();
-        return new Token(TokenType.Integer, Integer.toString(ascii), line, pos);
+        return token(TokenType.Integer, Integer.toString(ascii), line, pos);
     }
 
 
 
 
     Token getToken() {
+        long start = Metrics.ENABLED ? Metrics.start() : 0;
+        Token t;
+        while (true) {
+            try {
+                t = scanToken();
+                break;
+            } catch (CompileException e) {
+                if (this.diagnostics == null || this.diagnostics.full()) {
+                    throw e;
+                }
+                this.diagnostics.report(e);
+                recover();
+            }
+        }
+        // a comment scans the token after it recursively, which has already moved tokenStart past the comment
+        t.offset = this.tokenStart;
+        t.length = Math.min(this.position, this.limit) - this.tokenStart;
+        if (Metrics.ENABLED) {
+            Metrics.token(t.tokentype);
+            Metrics.end(Metrics.Phase.GET_TOKEN, start);
+        }
+        return t;
+    }
+
+    /**
+     * Gets past a bad token: whatever of it was scanned stays skipped, and a char no token
+     * can start with is skipped too, so the next scan starts somewhere new.
+     */
+    private void recover() {
+        this.mark = -1;
+        if (Math.min(this.position, this.limit) == this.tokenStart && this.chr != '\u0000') {
+            getNextChar();
+        }
+    }
+
+    private Token scanToken() {
         int line, pos;
-        while (Character.isWhitespace(this.chr)) {
+        while (isWhitespace(this.chr)) {
             getNextChar();
         }
         line = this.line;
         pos = this.pos;
+        this.tokenStart = Math.min(this.position, this.limit);
+
+        char c = this.chr;
+        if (c < 128 && (ONE_CHAR[c] != null || TWO_CHAR[c] != null)) {
+            getNextChar();
+            if (TWO_CHAR[c] != null && this.chr == SECOND_CHAR[c]) {
+                getNextChar();
+                return token(TWO_CHAR[c], "", line, pos);
+            }
+            if (ONE_CHAR[c] != null) {
+                return token(ONE_CHAR[c], "", line, pos);
+            }
+            return getASCII(line, pos);
+        }
 
         // switch statement on character for all forms of tokens with return to follow.... one example left for you
 
         switch (this.chr) {
-            case '\u0000': return new Token(TokenType.End_of_input, "", this.line, this.pos);
-
-            case '(':
-                chr = getNextChar();
-                return new Token(TokenType.LeftParen, "", line, pos);
-            case ')':
-                chr = getNextChar();
-                return new Token(TokenType.RightParen, "", line, pos);
-            case '{' :
-                chr = getNextChar();
-                return new Token(TokenType.LeftBrace, "", line, pos);
-            case'}' :
-                chr = getNextChar();
-                return new Token(TokenType.RightBrace, "", line, pos);
-            case ';':
-                chr = getNextChar();
-                return new Token(TokenType.Semicolon, "", line, pos);
-            case ',':
-                chr = getNextChar();
-                return new Token(TokenType.Comma, "", line, pos);
+            case '\u0000': return token(TokenType.End_of_input, "", this.line, this.pos);
 
-            case '*':
-                chr = getNextChar();
-                return new Token(TokenType.Op_multiply, "", line, pos);
             case '/':
                 chr = getNextChar();
                return div_or_comment(line, pos);
-            case '%' :
-                chr = getNextChar();
-                return new Token(TokenType.Op_mod, "", line,pos);
-            case'+' :
-                chr = getNextChar();
-                return new Token(TokenType.Op_add, "", line,pos);
             case '-':
                 char prevChar = prev;
 
                 chr = getNextChar();
-                if (Character.isLetterOrDigit(prevChar)) {
-                    return new Token(TokenType.Op_subtract, "", line, pos);
+                if (isLetterOrDigit(prevChar)) {
+                    return token(TokenType.Op_subtract, "", line, pos);
                 }
                 else{
-                    return new Token(TokenType.Op_negate, "", line, pos);
+                    return token(TokenType.Op_negate, "", line, pos);
                 }
 
-            case '<':
-                chr = getNextChar();
-
-                if(chr != '='){
-
-                    return  new Token(TokenType.Op_less, "", line, pos);
-                }
-                else {
-                    chr = getNextChar();
-
-                    return  new Token(TokenType.Op_lessequal, "", line, pos);
-                }
-
-            case '>':
-                chr = getNextChar();
-                if (chr != '=') {
-
-
-                    return new Token(TokenType.Op_greater, "",line,pos);
-                }
-                else {
-                    chr = getNextChar();
-                    return  new Token(TokenType.Op_greaterequal, "", line, pos);
-                }
-            case '!':
-                chr = getNextChar();
-                if (chr != '=') {
-
-
-                    return new Token(TokenType.Op_not, "", line,pos);
-                }
-                else {
-                    chr = getNextChar();
-                    return  new Token(TokenType.Op_notequal, "", line, pos);
-                }
-            case '=':
-                chr = getNextChar();
-                if (chr != '=') {
-                    return new Token(TokenType.Op_assign, "", line, pos);
-                }
-                else {
-                    chr = getNextChar();
-                    return  new Token(TokenType.Op_equal, "", line, pos);
-                }
-                case '&':
-                chr = getNextChar();
-                if (chr == '&') {
-                    chr = getNextChar();
-                    return new Token(TokenType.Op_and, "", line, pos);
-                }
-                else {
-                    return getASCII(line, pos);
-                }
-            case '|':
-                chr = getNextChar();
-                if (chr == '|') {
-
-                    return new Token(TokenType.Op_or, "", line,pos);
-                }
-                else {
-                    return getASCII(line, pos);
-                }
             case '\'':
                 chr = getNextChar();
                 return char_lit(line, pos);
@@ -386,16 +802,20 @@ public class Lexer {
 
 
     char getNextChar() {
-        if (!Character.isWhitespace(chr)) {
+        if (!isWhitespace(chr)) {
             prev = chr;
         }
         this.pos++;
         this.position++;
-        if (this.position >= this.s.length()) {
+        if (this.position >= this.limit && !fill()) {
             this.chr = '\u0000';
             return this.chr;
         }
-        this.chr = this.s.charAt(this.position);
+        this.chr = charAt(this.position);
+        if (this.chr >= 0x80 && this.bytes != null) {
+            // count UTF-16 chars like Lexer(Reader): none for a continuation byte, two for a 4-byte sequence
+            this.pos += this.chr < 0xc0 ? -1 : this.chr >= 0xf0 ? 1 : 0;
+        }
         if (this.chr == '\n') {
             this.line++;
             this.pos = 0;
@@ -404,51 +824,166 @@ public class Lexer {
     }
 
 
-    String printTokens() {
+    /**
+     * Reads the next block of input into the buffer. Everything before the mark is dropped;
+     * the buffer only grows when a single lexeme no longer fits in it.
+     * @return false once the reader is exhausted, or if there is no reader
+     */
+    private boolean fill() {
+        if (this.reader == null) {
+            return false;
+        }
+        int keep = this.mark >= 0 ? this.mark : this.limit;
+        int kept = this.limit - keep;
+        char[] target = kept == this.buffer.length ? new char[this.buffer.length * 2] : this.buffer;
+        System.arraycopy(this.buffer, keep - this.bufferStart, target, 0, kept);
+        this.buffer = target;
+        this.bufferStart = keep;
+        try {
+            int n;
+            do {
+                n = this.reader.read(this.buffer, kept, this.buffer.length - kept);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            if (Metrics.ENABLED) {
+                Metrics.bytesRead(n);
+            }
+            this.limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Lexes the rest of the input into out, End_of_input included,
+     * without allocating a Token per token.
+     * @param out the buffer to append to
+     */
+    void tokenize(TokenBuffer out) {
         Token t;
-        StringBuilder sb = new StringBuilder();
-        while ((t = getToken()).tokentype != TokenType.End_of_input) {
-            sb.append(t);
-            sb.append("\n");
-            System.out.println(t);
-        }
-        sb.append(t);
-        System.out.println(t);
+        this.reuse = new Token(TokenType.End_of_input, "", 0, 0);
+        try {
+            do {
+                t = getToken();
+                if (t.symbol >= 0) {
+                    out.add(t.tokentype.ordinal(), t.line, t.pos, this.symbols, t.symbol);
+                } else {
+                    out.add(t.tokentype.ordinal(), t.line, t.pos, t.value == null ? value(t) : t.value);
+                }
+            } while (t.tokentype != TokenType.End_of_input);
+        } finally {
+            this.reuse = null;
+        }
+        if (Metrics.ENABLED) {
+            Metrics.tokenList(out.size());
+        }
+    }
+
+
+    String printTokens() {
+        StringWriter sb = new StringWriter();
+        try {
+            printTokens(sb, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringWriter never throws
+        }
         return sb.toString();
     }
 
-    static void outputToFile(String result) {
+    /**
+     * Streams the text token listing for the rest of the input to out, one token per line,
+     * so the listing is never held in memory as a whole. Buffering out is up to the caller.
+     * @param out  where the listing goes, e.g. a BufferedWriter over the .lex file
+     * @param echo also print every token to System.out, through one buffer flushed at the end
+     */
+    void printTokens(Writer out, boolean echo) throws IOException {
+        Writer console = echo ? new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE) : null;
+        Token t;
+        this.reuse = new Token(TokenType.End_of_input, "", 0, 0);
         try {
-            FileWriter myWriter = new FileWriter("src/main/resources/count.lex");
+            do {
+                t = getToken();
+                if (t.value == null) {
+                    t.value = value(t).toString(); // copied only for printing
+                }
+                String line = t.toString();
+                out.write(line);
+                if (t.tokentype != TokenType.End_of_input) {
+                    out.write('\n');
+                }
+                if (console != null) {
+                    console.write(line);
+                    console.write('\n');
+                }
+            } while (t.tokentype != TokenType.End_of_input);
+        } finally {
+            this.reuse = null;
+            if (console != null) {
+                console.flush();
+            }
+        }
+    }
+
+    /**
+     * Lexes the rest of the input straight into the binary .lexb token format, see TokenBuffer.write
+     */
+    void writeTokens(OutputStream out) throws IOException {
+        TokenBuffer tokens = new TokenBuffer();
+        tokenize(tokens);
+        tokens.write(new DataOutputStream(new BufferedOutputStream(out)));
+    }
+
+    static void outputToFile(String result, Path path) {
+        long start = Metrics.ENABLED ? Metrics.start() : 0;
+        try (Writer myWriter = Files.newBufferedWriter(path)) {
             myWriter.write(result);
-            myWriter.close();
             System.out.println("Successfully wrote to the file.");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (Metrics.ENABLED) {
+            Metrics.end(Metrics.Phase.OUTPUT, start);
+        }
     }
 
     public static void main(String[] args) {
         if (1==1) {
+            // --echo also prints the token listing to the console
+            boolean echo = Arrays.asList(args).contains("--echo");
+            args = Arrays.stream(args).filter(a -> !a.equals("--echo")).toArray(String[]::new);
+            Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+            // a .lexb output gets the binary token format, anything else the text listing
+            Path output = Paths.get(args.length > 1 ? args[1] : "src/main/resources/count.lex");
             try {
-
-                File f = new File("src/main/resources/count.c");
-                Scanner s = new Scanner(f);
-                String source = " ";
-                String result = " ";
-                while (s.hasNext()) {
-                    source += s.nextLine() + "\n";
+                Lexer l = Lexer.map(path);
+                long start = Metrics.ENABLED ? Metrics.start() : 0;
+                if (output.toString().endsWith(".lexb")) {
+                    try (OutputStream out = Files.newOutputStream(output)) {
+                        l.writeTokens(out);
+                    }
+                } else {
+                    try (Writer out = Files.newBufferedWriter(output)) {
+                        l.printTokens(out, echo);
+                    }
                 }
-                Lexer l = new Lexer(source);
-                result = l.printTokens();
-
-                outputToFile(result);
-
-            } catch(FileNotFoundException e) {
-                error(-1, -1, "Exception: " + e.getMessage());
+                if (Metrics.ENABLED) {
+                    Metrics.end(Metrics.Phase.OUTPUT, start);
+                }
+                System.out.println("Successfully wrote to the file.");
+
+            } catch (NoSuchFileException e) {
+                new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+            } catch (CompileException e) {
+                e.exit();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         } else {
-            error(-1, -1, "No args");
+            new CompileException(-1, -1, "No args").exit();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Opt-in counters and timers for where compile time goes, off unless the JVM is started with
+ * -Dcompiler.metrics=FILE (a JSON summary written to FILE at exit) or -Dcompiler.metrics=true
+ * (the summary on System.err). Every call site is guarded by ENABLED, a static final the JIT
+ * folds, so with metrics off the guarded code is compiled away; LexerBenchmark and ParserBenchmark
+ * measure that. With metrics on, each phase also emits a compiler.Phase JFR event, for recordings
+ * started with -XX:StartFlightRecording; getToken() is timed but too frequent for an event per call.
+ * Counters are LongAdders, so compiles on many threads add to them without contending.
+ */
+class Metrics {
+    private static final String PROPERTY = System.getProperty("compiler.metrics");
+    static final boolean ENABLED = PROPERTY != null && !PROPERTY.equals("false");
+
+    /**
+     * What the timers time. Nested phases are counted in each: parse() pulling tokens from a Lexer
+     * includes their getToken() time, and OUTPUT includes whatever lexing or printing a tool
+     * streams into its output file.
+     */
+    enum Phase {
+        GET_TOKEN("getToken", false),
+        PARSE("parse", true),
+        PRINT_AST("printAST", true),
+        OUTPUT("output", true);
+
+        private final String name;
+        private final boolean event;
+
+        Phase(String name, boolean event) {
+            this.name = name;
+            this.event = event;
+        }
+    }
+
+    private static final Lexer.TokenType[] TOKEN_TYPES = Lexer.TokenType.values();
+    private static final Parser.NodeType[] NODE_TYPES = Parser.NodeType.values();
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final LongAdder bytes = new LongAdder();
+    private static final LongAdder[] tokens = adders(TOKEN_TYPES.length);
+    private static final LongAdder[] nodes = adders(NODE_TYPES.length);
+    private static final LongAdder[] nanos = adders(PHASES.length);
+    private static final LongAdder[] calls = adders(PHASES.length);
+    private static final AtomicLong peakTokens = new AtomicLong();
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::writeSummary, "metrics"));
+        }
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @param n how many bytes (or chars) of source a lexer was given
+     */
+    static void bytesRead(long n) {
+        bytes.add(n);
+    }
+
+    static void token(Lexer.TokenType type) {
+        tokens[type.ordinal()].increment();
+    }
+
+    static void node(Parser.NodeType type) {
+        nodes[type.ordinal()].increment();
+    }
+
+    /**
+     * @param size how many tokens a token list or TokenBuffer was filled with
+     */
+    static void tokenList(int size) {
+        peakTokens.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * @return the start time for end()
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start what start() returned when the phase began
+     */
+    static void end(Phase phase, long start) {
+        long elapsed = System.nanoTime() - start;
+        nanos[phase.ordinal()].add(elapsed);
+        calls[phase.ordinal()].increment();
+        if (phase.event) {
+            PhaseEvent event = new PhaseEvent();
+            if (event.isEnabled()) {
+                event.phase = phase.name;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Sets every counter back to zero, e.g. between the runs of a long-lived process.
+     */
+    static void reset() {
+        bytes.reset();
+        for (LongAdder[] adders : new LongAdder[][] {tokens, nodes, nanos, calls}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+        peakTokens.set(0);
+    }
+
+    /**
+     * Writes the counters as one JSON object: bytesRead, peakTokenListSize, tokens and nodes by type
+     * (types never seen are left out), and calls and milliseconds per phase.
+     */
+    static void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"bytesRead\": " + bytes.sum() + ",\n");
+        out.write("  \"peakTokenListSize\": " + peakTokens.get() + ",\n");
+        out.write("  \"tokens\": {");
+        String separator = "";
+        for (int i = 0; i < TOKEN_TYPES.length; i++) {
+            if (tokens[i].sum() > 0) {
+                out.write(separator + "\n    \"" + TOKEN_TYPES[i] + "\": " + tokens[i].sum());
+                separator = ",";
+            }
+        }
+        out.write("\n  },\n  \"nodes\": {");
+        separator = "";
+        for (int i = 0; i < NODE_TYPES.length; i++) {
+            if (nodes[i].sum() > 0) {
+                out.write(separator + "\n    \"" + NODE_TYPES[i].name() + "\": " + nodes[i].sum());
+                separator = ",";
+            }
+        }
+        out.write("\n  },\n  \"phases\": {");
+        separator = "";
+        for (Phase phase : PHASES) {
+            out.write(String.format(Locale.ROOT, "%s\n    \"%s\": {\"calls\": %d, \"ms\": %.3f}", separator, phase.name,
+                    calls[phase.ordinal()].sum(), nanos[phase.ordinal()].sum() / 1e6));
+            separator = ",";
+        }
+        out.write("\n  }\n}\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the summary where -Dcompiler.metrics says, at exit.
+     */
+    private static void writeSummary() {
+        try {
+            if (PROPERTY.equals("true")) {
+                writeJson(new OutputStreamWriter(System.err));
+            } else {
+                try (Writer out = Files.newBufferedWriter(Paths.get(PROPERTY))) {
+                    writeJson(out);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * One run of a phase, for a JFR recording.
+     */
+    @Name("compiler.Phase")
+    @Label("Compiler Phase")
+    @Category("Compiler")
+    @Description("Time spent in one run of a lexer or parser phase")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+/**
+ * Simplifies a Parser.Node tree before it is run or printed:
+ * arithmetic, comparisons and logic on integer literals fold to one nd_Integer,
+ * x * 1, 1 * x, x / 1, x + 0, 0 + x and x - 0 become x,
+ * nd_Negate and nd_Not of a literal become a literal,
+ * and an if or while with a constant condition keeps only the branch that can run.
+ * Values are 32-bit ints that wrap on overflow, like the C the language is modelled on.
+ * Division or modulo by a literal zero is left alone for run time to report.
+ */
+class Optimizer {
+
+    /**
+     * Rewrites the tree bottom-up, reusing its nodes where it can.
+     * @param root the tree from Parser.parse(), may be null
+     * @return the simplified tree, null when nothing is left to run
+     */
+    static Parser.Node optimize(Parser.Node root) {
+        Folder folder = new Folder();
+        AstWalker.walk(root, folder);
+        return folder.stack[0];
+    }
+
+    /**
+     * Rewrites nodes post-order: once both children are simplified their results are on top of the stack,
+     * then the node itself is simplified, so each replacement lands in its parent.
+     */
+    private static class Folder implements AstWalker.Visitor {
+        private Parser.Node[] stack = new Parser.Node[64];
+        private int top;
+
+        @Override
+        public boolean enter(Parser.Node node) {
+            return node != null && !Parser.isLeaf(node.nt);
+        }
+
+        @Override
+        public void leave(Parser.Node node) {
+            if (node != null && !Parser.isLeaf(node.nt)) {
+                node.right = this.stack[--this.top];
+                node.left = this.stack[--this.top];
+                node = simplify(node);
+            }
+            if (this.top == this.stack.length) {
+                this.stack = Arrays.copyOf(this.stack, this.top * 2);
+            }
+            this.stack[this.top++] = node;
+        }
+    }
+
+    /**
+     * @param t a node whose children are already simplified
+     * @return what replaces t, possibly t itself or null
+     */
+    static Parser.Node simplify(Parser.Node t) {
+        Parser.Node left = t.left, right = t.right;
+        switch (t.nt) {
+            case nd_Negate:
+                if (isConstant(left)) {
+                    return integer(-value(left));
+                }
+                if (left.nt == Parser.NodeType.nd_Negate) {
+                    return left.left;
+                }
+                return t;
+            case nd_Not:
+                return isConstant(left) ? integer(value(left) == 0 ? 1 : 0) : t;
+            case nd_Mul:
+                if (isConstant(left, 1)) {
+                    return right;
+                }
+                if (isConstant(right, 1)) {
+                    return left;
+                }
+                break;
+            case nd_Div:
+                if (isConstant(right, 1)) {
+                    return left;
+                }
+                break;
+            case nd_Add:
+                if (isConstant(left, 0)) {
+                    return right;
+                }
+                if (isConstant(right, 0)) {
+                    return left;
+                }
+                break;
+            case nd_Sub:
+                if (isConstant(right, 0)) {
+                    return left;
+                }
+                break;
+            case nd_If:
+                // nd_If(condition, nd_If(then, else))
+                if (isConstant(left)) {
+                    return value(left) != 0 ? right.left : right.right;
+                }
+                return t;
+            case nd_While:
+                return isConstant(left, 0) ? null : t;
+            case nd_Sequence:
+                // a statement folded away leaves nothing to sequence
+                return right == null ? left : t;
+            default:
+                break;
+        }
+        // only binary operators can have two literal children
+        if (isConstant(left) && isConstant(right)) {
+            return fold(t);
+        }
+        return t;
+    }
+
+    /**
+     * @param t a binary operator node with two integer literal children
+     */
+    private static Parser.Node fold(Parser.Node t) {
+        int a = value(t.left), b = value(t.right);
+        switch (t.nt) {
+            case nd_Mul:
+                return integer(a * b);
+            case nd_Div:
+                return b == 0 ? t : integer(a / b);
+            case nd_Mod:
+                return b == 0 ? t : integer(a % b);
+            case nd_Add:
+                return integer(a + b);
+            case nd_Sub:
+                return integer(a - b);
+            case nd_Lss:
+                return integer(a < b ? 1 : 0);
+            case nd_Leq:
+                return integer(a <= b ? 1 : 0);
+            case nd_Gtr:
+                return integer(a > b ? 1 : 0);
+            case nd_Geq:
+                return integer(a >= b ? 1 : 0);
+            case nd_Eql:
+                return integer(a == b ? 1 : 0);
+            case nd_Neq:
+                return integer(a != b ? 1 : 0);
+            case nd_And:
+                return integer(a != 0 && b != 0 ? 1 : 0);
+            case nd_Or:
+                return integer(a != 0 || b != 0 ? 1 : 0);
+            default:
+                return t;
+        }
+    }
+
+    /**
+     * @return true if t is an integer literal that fits in an int
+     */
+    private static boolean isConstant(Parser.Node t) {
+        if (t == null || t.nt != Parser.NodeType.nd_Integer) {
+            return false;
+        }
+        try {
+            Integer.parseInt(t.value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isConstant(Parser.Node t, int value) {
+        return isConstant(t) && value(t) == value;
+    }
+
+    private static int value(Parser.Node t) {
+        return Integer.parseInt(t.value);
+    }
+
+    private static Parser.Node integer(int value) {
+        return Parser.Node.make_leaf(Parser.NodeType.nd_Integer, Integer.toString(value));
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Lexes a large mapped source on several threads, into the same tokens Lexer(ByteBuffer).tokenize gives.
+ * A quick pre-scan walks the bytes with a state machine that only knows comments, strings and character
+ * literals, and splits the source at newlines outside all of them, about chunkSize bytes apart.
+ * No token crosses such a newline, so each chunk is lexed on its own by a Lexer that counts lines from 1
+ * and is told the last non-whitespace char before the chunk. The chunks' tokens are then joined in
+ * order, each chunk moved down by the lines of the chunks before it.
+ */
+class ParallelLexer {
+    // below this a chunk is not worth a task of its own
+    static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Lexes bytes on the common ForkJoinPool, in a few chunks per thread so uneven chunks even out.
+     * @param bytes the source, from its position to its limit
+     */
+    static TokenBuffer lex(ByteBuffer bytes) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, bytes.remaining() / (pool.getParallelism() * 4));
+        return lex(bytes, chunkSize, pool);
+    }
+
+    /**
+     * @param bytes     the source, from its position to its limit
+     * @param chunkSize how many bytes each chunk has at least, except the last one
+     */
+    static TokenBuffer lex(ByteBuffer bytes, int chunkSize, ForkJoinPool pool) {
+        ByteBuffer source = bytes.slice();
+        int[] splits = splitPoints(source, chunkSize);
+        List<Callable<TokenBuffer>> tasks = new ArrayList<>(splits.length - 1);
+        for (int k = 0; k + 1 < splits.length; k++) {
+            ByteBuffer chunk = source.duplicate();
+            chunk.limit(splits[k + 1]).position(splits[k]);
+            char prev = prevChar(source, splits[k]);
+            tasks.add(() -> {
+                TokenBuffer out = new TokenBuffer();
+                new Lexer(chunk, prev).tokenize(out);
+                return out;
+            });
+        }
+
+        TokenBuffer[] parts = new TokenBuffer[tasks.size()];
+        int k = 0;
+        try {
+            List<Future<TokenBuffer>> futures = pool.invokeAll(tasks);
+            for (; k < parts.length; k++) {
+                parts[k] = futures.get(k).get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CompileException) {
+                // the first chunk that failed has the error a sequential lexer would stop at; its lines
+                // count from the chunk's start, which is just after a newline
+                int lines = 0;
+                for (int i = 0; i < splits[k]; i++) {
+                    if (source.get(i) == '\n') {
+                        lines++;
+                    }
+                }
+                throw ((CompileException) e.getCause()).movedDown(lines);
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        // every chunk but the last ends in an End_of_input of its own, which is dropped
+        int[] counts = new int[parts.length];
+        int[] lineDeltas = new int[parts.length];
+        for (k = 0; k < parts.length; k++) {
+            TokenBuffer part = parts[k];
+            counts[k] = k == parts.length - 1 ? part.size() : part.size() - 1;
+            if (k + 1 < parts.length) {
+                lineDeltas[k + 1] = lineDeltas[k] + part.line(part.size() - 1) - 1; // End_of_input is on the chunk's last line
+            }
+        }
+        return TokenBuffer.concat(parts, counts, lineDeltas, pool);
+    }
+
+    /**
+     * The pre-scan. Its idea of comments, strings and character literals is exactly the Lexer's, e.g. a
+     * string ends at the next '"' whatever comes before it.
+     * @return offsets the chunks start at: 0, then each chosen split point, then source.limit()
+     */
+    static int[] splitPoints(ByteBuffer source, int chunkSize) {
+        int n = source.limit();
+        int[] splits = new int[16];
+        int count = 1;
+        int next = chunkSize;
+        int i = 0;
+        while (i < n) {
+            byte b = source.get(i++);
+            switch (b) {
+                case '\n':
+                    if (i >= next && i < n) {
+                        if (count == splits.length) {
+                            splits = Arrays.copyOf(splits, count * 2);
+                        }
+                        splits[count++] = i;
+                        next = i + chunkSize;
+                    }
+                    break;
+                case '/':
+                    if (i < n && source.get(i) == '*') {
+                        i = indexOf(source, '*', '/', i + 1) + 2;
+                    } else if (i < n && source.get(i) == '/') {
+                        i = indexOf(source, '\n', i); // the newline itself may be a split point
+                    }
+                    break;
+                case '"':
+                    i = indexOf(source, '"', i) + 1;
+                    break;
+                case '\'':
+                    // char_lit reads two chars before the closing quote, or three when the second is '\\'
+                    i += i + 1 < n && source.get(i + 1) == '\\' ? 4 : 3;
+                    break;
+                default:
+                    break;
+            }
+        }
+        splits = Arrays.copyOf(splits, count + 1);
+        splits[count] = n;
+        return splits;
+    }
+
+    /**
+     * @return offset of the first b at or after from, the end of the source if there is none
+     */
+    private static int indexOf(ByteBuffer source, char b, int from) {
+        int n = source.limit();
+        while (from < n && source.get(from) != b) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return offset of the first b followed by c at or after from, the end of the source if there is none
+     */
+    private static int indexOf(ByteBuffer source, char b, char c, int from) {
+        int n = source.limit();
+        for (int i = from; i + 1 < n; i++) {
+            if (source.get(i) == b && source.get(i + 1) == c) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the last non-whitespace char before offset, what the lexer's prev holds there
+     */
+    private static char prevChar(ByteBuffer source, int offset) {
+        for (int i = offset - 1; i >= 0; i--) {
+            char c = (char) (source.get(i) & 0xff);
+            if (!Lexer.isWhitespace(c)) {
+                return c;
+            }
+        }
+        return '\u0000';
+    }
+
+    public static void main(String[] args) {
+        // lexes a source file on all cores into the binary .lexb token format, count.c by default
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+        Path output = Paths.get(args.length > 1 ? args[1] : "src/main/resources/count.lexb");
+        try {
+            TokenBuffer tokens = lex(Lexer.mapBytes(path));
+            try (OutputStream out = Files.newOutputStream(output)) {
+                tokens.write(new DataOutputStream(new BufferedOutputStream(out)));
+            }
+            System.out.println("Successfully wrote to the file.");
+        } catch (NoSuchFileException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } catch (CompileException e) {
+            e.exit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,15 +1,23 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
 
 class Parser {
-    private final List<Token> source;
-    private Token token;
+    private List<Lexer.Token> source;
+    private TokenBuffer.Cursor cursor;
+    private Lexer lexer;
+    private Lexer.Token token;
     private int position;
+    private Diagnostics diagnostics; // set by parse(Diagnostics)
+
+    private static final Lexer.TokenType[] TOKEN_TYPES = Lexer.TokenType.values();
 
     static class Node {
         public NodeType nt;
@@ -39,6 +47,9 @@ class Parser {
             //added
             this.right_assoc = false;
             this.is_unary = false;
+            if (Metrics.ENABLED) {
+                Metrics.node(node_type);
+            }
         }
 
         public static Node make_node(NodeType nodetype, Node left, Node right) {
@@ -54,96 +65,6 @@ class Parser {
         }
     }
 
-    static class Token {
-        public TokenType tokentype;
-        public String value;
-        public int line;
-        public int pos;
-
-        Token(TokenType token, String value, int line, int pos) {
-            this.tokentype = token;
-            this.value = value;
-            this.line = line;
-            this.pos = pos;
-        }
-
-        @Override
-        public String toString() {
-            return String.format("%5d  %5d %-15s %s", this.line, this.pos, this.tokentype, this.value);
-        }
-    }
-
-    static enum TokenType {
-        End_of_input(false, false, false, -1, NodeType.nd_None),
-        Op_multiply(false, true, false, 13, NodeType.nd_Mul),
-        Op_divide(false, true, false, 13, NodeType.nd_Div),
-        Op_mod(false, true, false, 13, NodeType.nd_Mod),
-        Op_add(false, true, false, 12, NodeType.nd_Add),
-        Op_subtract(false, true, false, 12, NodeType.nd_Sub),
-        Op_negate(false, false, true, 14, NodeType.nd_Negate),
-        Op_not(false, false, true, 14, NodeType.nd_Not),
-        Op_less(false, true, false, 10, NodeType.nd_Lss),
-        Op_lessequal(false, true, false, 10, NodeType.nd_Leq),
-        Op_greater(false, true, false, 10, NodeType.nd_Gtr),
-        Op_greaterequal(false, true, false, 10, NodeType.nd_Geq),
-        Op_equal(false, true, true, 9, NodeType.nd_Eql),
-        Op_notequal(false, true, false, 9, NodeType.nd_Neq),
-        Op_assign(false, false, false, -1, NodeType.nd_Assign),
-        Op_and(false, true, false, 5, NodeType.nd_And),
-        Op_or(false, true, false, 4, NodeType.nd_Or),
-        Keyword_if(false, false, false, -1, NodeType.nd_If),
-        Keyword_else(false, false, false, -1, NodeType.nd_None),
-        Keyword_while(false, false, false, -1, NodeType.nd_While),
-        Keyword_print(false, false, false, -1, NodeType.nd_None),
-        Keyword_putc(false, false, false, -1, NodeType.nd_None),
-        LeftParen(false, false, false, -1, NodeType.nd_None),
-        RightParen(false, false, false, -1, NodeType.nd_None),
-        LeftBrace(false, false, false, -1, NodeType.nd_None),
-        RightBrace(false, false, false, -1, NodeType.nd_None),
-        Semicolon(false, false, false, -1, NodeType.nd_None),
-        Comma(false, false, false, -1, NodeType.nd_None),
-        Identifier(false, false, false, -1, NodeType.nd_Ident),
-        Integer(false, false, false, -1, NodeType.nd_Integer),
-        String(false, false, false, -1, NodeType.nd_String);
-
-        private final int precedence;
-        private final boolean right_assoc;
-        private final boolean is_binary;
-        private final boolean is_unary;
-        private final NodeType node_type;
-
-        TokenType(boolean right_assoc, boolean is_binary, boolean is_unary, int precedence, NodeType node) {
-            this.right_assoc = right_assoc;
-            this.is_binary = is_binary;
-            this.is_unary = is_unary;
-            this.precedence = precedence;
-            this.node_type = node;
-        }
-
-        boolean isRightAssoc() {
-            return this.right_assoc;
-        }
-
-        boolean isBinary() {
-            return this.is_binary;
-        }
-
-        boolean isUnary() {
-            return this.is_unary;
-        }
-
-        int getPrecedence() {
-            return this.precedence;
-        }
-
-        NodeType getNodeType() {
-            return this.node_type;
-        }
-
-    }
-
-
-
     static enum NodeType {
         nd_None(""), nd_Ident("Identifier"), nd_String("String"), nd_Integer("Integer"), nd_Sequence("Sequence"), nd_If("If"),
         nd_Prtc("Prtc"), nd_Prts("Prts"), nd_Prti("Prti"), nd_While("While"),
@@ -163,23 +84,122 @@ class Parser {
         }
     }
 
+    /**
+     * @throws CompileException always, with msg and where in the source it happened
+     */
     static void error(int line, int pos, String msg) {
-        if (line > 0 && pos > 0) {
-            System.out.printf("%s in line %d, pos %d\n", msg, line, pos);
-        } else {
-            System.out.println(msg);
-        }
-        System.exit(1);
+        throw new CompileException(line, pos, msg);
+    }
+
+    Parser(List<Lexer.Token> source) {
+        reset(source);
+    }
+
+    /**
+     * Reads tokens straight out of a TokenBuffer, refilling a single Lexer.Token as it goes
+     * @param tokens lexed tokens, ending with End_of_input
+     */
+    Parser(TokenBuffer tokens) {
+        reset(tokens);
     }
 
-    Parser(List<Token> source) {
+    /**
+     * Pulls each token from the lexer as it is needed, so no token list is built at all
+     * @param lexer positioned at the start of the program
+     */
+    Parser(Lexer lexer) {
+        reset(lexer);
+    }
+
+    /**
+     * Points the parser at another program, as if it had just been made with Parser(List).
+     * The reset methods let one parser, e.g. from a pool, parse many programs one after another;
+     * a parser is not safe to use from two threads at once.
+     * @return this parser
+     */
+    Parser reset(List<Lexer.Token> source) {
         this.source = source;
+        this.cursor = null;
+        this.lexer = null;
+        this.token = null;
+        this.position = 0;
+        this.diagnostics = null;
+        return this;
+    }
+
+    /**
+     * Points the parser at another program, as if it had just been made with Parser(TokenBuffer),
+     * refilling the same Lexer.Token as before.
+     * @return this parser
+     */
+    Parser reset(TokenBuffer tokens) {
+        if (this.cursor == null) {
+            // the current token, if any, belongs to a list or a lexer
+            this.token = new Lexer.Token(Lexer.TokenType.End_of_input, "", 0, 0);
+        }
+        this.source = null;
+        this.cursor = tokens.cursor();
+        this.lexer = null;
+        this.position = 0;
+        this.diagnostics = null;
+        return this;
+    }
+
+    /**
+     * Points the parser at another program, as if it had just been made with Parser(Lexer).
+     * @return this parser
+     */
+    Parser reset(Lexer lexer) {
+        this.source = null;
+        this.cursor = null;
+        this.lexer = lexer;
         this.token = null;
         this.position = 0;
+        this.diagnostics = null;
+        return this;
     }
 
-    Token getNextToken() {
-        this.token = this.source.get(this.position++);
+    /**
+     * What tryParse() gave: the tree, or the error that stopped the parse.
+     */
+    static class Result {
+        final Node tree;
+        final CompileException error; // null when the program parsed
+
+        Result(Node tree, CompileException error) {
+            this.tree = tree;
+            this.error = error;
+        }
+
+        boolean ok() {
+            return this.error == null;
+        }
+    }
+
+    Lexer.Token getNextToken() {
+        if (this.lexer != null) {
+            this.token = this.lexer.getToken();
+            this.position++;
+            if (this.token.value == null) {
+                // mapped input: names and strings are already in the symbol table, only literals are decoded
+                this.token.value = this.token.symbol >= 0 ? this.lexer.symbols().name(this.token.symbol)
+                        : this.lexer.value(this.token).toString();
+            }
+            return this.token;
+        }
+        if (this.cursor == null) {
+            this.token = this.source.get(this.position++);
+            return this.token;
+        }
+        if (this.cursor.next()) {
+            this.position++;
+            this.token.tokentype = TOKEN_TYPES[this.cursor.type()];
+            this.token.line = this.cursor.line();
+            this.token.pos = this.cursor.pos();
+            this.token.value = this.token.tokentype == Lexer.TokenType.Identifier
+                    || this.token.tokentype == Lexer.TokenType.Integer
+                    || this.token.tokentype == Lexer.TokenType.String ? this.cursor.value() : "";
+        }
         return this.token;
     }
 
@@ -187,41 +207,66 @@ class Parser {
         // create nodes for token types such as LeftParen, Op_add, Op_subtract, etc.
         // be very careful here and be aware of the precendence rules for the AST tree
         Node result = null, node;
-        Node left;
-        TokenType op;
+        Lexer.TokenType op;
         int q;
 
-        if (this.token.tokentype == TokenType.LeftParen) {
+        if (this.token.tokentype == Lexer.TokenType.LeftParen) {
             result = paren_expr();
-        } else if (this.token.tokentype == TokenType.Op_add ||
-                this.token.tokentype == TokenType.Op_subtract ||
-                this.token.tokentype == TokenType.Op_not ||
-                this.token.tokentype == TokenType.Identifier ||
-                this.token.tokentype == TokenType.Integer) {
-            left = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-            this.token = getNextToken();
-            while (true) {
-                op = this.token.tokentype;
-                if (!op.isBinary() || op.getPrecedence() <= p) {
-                    break;
-                }
-                this.token = getNextToken();
-                q = op.getPrecedence();
-                result = Node.make_node(op.getNodeType(), left, expr(q));
+        } else if (this.token.tokentype == Lexer.TokenType.Op_add ||
+                this.token.tokentype == Lexer.TokenType.Op_subtract ||
+                this.token.tokentype == Lexer.TokenType.Op_negate) {
+            op = this.token.tokentype;
+            getNextToken();
+            node = expr(Lexer.TokenType.Op_negate.getPrecedence());
+            result = op == Lexer.TokenType.Op_add ? node : Node.make_node(NodeType.nd_Negate, node);
+        } else if (this.token.tokentype == Lexer.TokenType.Op_not) {
+            getNextToken();
+            result = Node.make_node(NodeType.nd_Not, expr(Lexer.TokenType.Op_not.getPrecedence()));
+        } else if (this.token.tokentype == Lexer.TokenType.Identifier) {
+            result = Node.make_leaf(NodeType.nd_Ident, this.token.value);
+            getNextToken();
+        } else if (this.token.tokentype == Lexer.TokenType.Integer) {
+            if (this.token.value.length() > 9 && !fitsInt(this.token.value)) {
+                // the backends compute in ints, and only here is it still known where the literal is
+                error(this.token.line, this.token.pos, "Integer literal out of range: " + this.token.value);
+            }
+            result = Node.make_leaf(NodeType.nd_Integer, this.token.value);
+            getNextToken();
+        } else {
+            error(this.token.line, this.token.pos, "Expecting a primary, found: " + this.token.tokentype);
+        }
+
+        while (this.token.tokentype.isBinary() && this.token.tokentype.getPrecedence() >= p) {
+            op = this.token.tokentype;
+            getNextToken();
+            q = op.getPrecedence();
+            if (!op.isRightAssoc()) {
+                q++;
             }
+            node = expr(q);
+            result = Node.make_node(op.getNodeType(), result, node);
         }
 
         return result;
     }
 
+    private static boolean fitsInt(String digits) {
+        try {
+            Integer.parseInt(digits);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     Node paren_expr() {
-        expect("paren_expr", TokenType.LeftParen);
+        expect("paren_expr", Lexer.TokenType.LeftParen);
         Node node = expr(0);
-        expect("paren_expr", TokenType.RightParen);
+        expect("paren_expr", Lexer.TokenType.RightParen);
         return node;
     }
 
-    void expect(String msg, TokenType s) {
+    void expect(String msg, Lexer.TokenType s) {
         if (this.token.tokentype == s) {
             getNextToken();
             return;
@@ -236,176 +281,384 @@ class Parser {
 
         switch (this.token.tokentype) {
             case Keyword_if:
-                this.token = getNextToken();
-                e = expr(0);
-                expect("stmt", TokenType.LeftBrace);
+                getNextToken();
+                e = paren_expr();
                 s = stmt();
-                if (this.token.tokentype == TokenType.Keyword_else) {
-                    this.token = getNextToken();
+                s2 = null;
+                if (this.token.tokentype == Lexer.TokenType.Keyword_else) {
+                    getNextToken();
                     s2 = stmt();
-                    t = Node.make_node(NodeType.nd_If, e, Node.make_node(NodeType.nd_If, s, s2));
-                } else {
-                    t = Node.make_node(NodeType.nd_If, e, s);
                 }
+                t = Node.make_node(NodeType.nd_If, e, Node.make_node(NodeType.nd_If, s, s2));
                 break;
             case Keyword_while:
-                this.token = getNextToken();
-                e = expr(0);
-                expect("stmt", TokenType.LeftBrace);
+                getNextToken();
+                e = paren_expr();
                 s = stmt();
                 t = Node.make_node(NodeType.nd_While, e, s);
                 break;
             case Identifier:
                 v = Node.make_leaf(NodeType.nd_Ident, this.token.value);
-                this.token = getNextToken();
-                expect("stmt", TokenType.Op_assign);
+                getNextToken();
+                expect("assign", Lexer.TokenType.Op_assign);
                 e = expr(0);
                 t = Node.make_node(NodeType.nd_Assign, v, e);
+                expect("assign", Lexer.TokenType.Semicolon);
                 break;
             case Keyword_putc:
-                this.token = getNextToken();
-                expect("stmt", TokenType.LeftParen);
-                e = expr(0);
-                expect("stmt", TokenType.RightParen);
+                getNextToken();
+                e = paren_expr();
                 t = Node.make_node(NodeType.nd_Prtc, e);
+                expect("putc", Lexer.TokenType.Semicolon);
                 break;
             case Keyword_print:
-                this.token = getNextToken();
-                expect("stmt", TokenType.LeftParen);
-                e = expr(0);
-                expect("stmt", TokenType.RightParen);
-                t = Node.make_node(NodeType.nd_Prts, e);
+                getNextToken();
+                expect("print", Lexer.TokenType.LeftParen);
+                while (true) {
+                    if (this.token.tokentype == Lexer.TokenType.String) {
+                        e = Node.make_node(NodeType.nd_Prts, Node.make_leaf(NodeType.nd_String, this.token.value));
+                        getNextToken();
+                    } else {
+                        e = Node.make_node(NodeType.nd_Prti, expr(0));
+                    }
+                    t = Node.make_node(NodeType.nd_Sequence, t, e);
+                    if (this.token.tokentype != Lexer.TokenType.Comma) {
+                        break;
+                    }
+                    getNextToken();
+                }
+                expect("print", Lexer.TokenType.RightParen);
+                expect("print", Lexer.TokenType.Semicolon);
+                break;
+            case Semicolon:
+                getNextToken();
+                break;
+            case LeftBrace:
+                getNextToken();
+                while (this.token.tokentype != Lexer.TokenType.RightBrace && this.token.tokentype != Lexer.TokenType.End_of_input) {
+                    t = Node.make_node(NodeType.nd_Sequence, t, statement());
+                }
+                expect("block", Lexer.TokenType.RightBrace);
+                break;
+            case End_of_input:
                 break;
             default:
-                error(this.token.line, this.token.pos, "Syntax error in statement");
+                error(this.token.line, this.token.pos, "Syntax error in statement, found: " + this.token.tokentype);
                 break;
         }
-        expect("stmt", TokenType.Semicolon);
 
         return t;//existed before
     }
 
+    /**
+     * Parses one statement out of a token list, e.g. to reparse only the statements an edit touched
+     * @param start index of the statement's first token
+     * @return the statement, null for an empty one; tokenIndex() is then the token after it
+     */
+    Node stmt(int start) {
+        this.position = start;
+        getNextToken();
+        return stmt();
+    }
+
+    /**
+     * @return index of the current token in a token list
+     */
+    int tokenIndex() {
+        return this.position - 1;
+    }
+
     Node parse() {
+        long start = Metrics.ENABLED ? Metrics.start() : 0;
         Node t = null;
         getNextToken();
-        while (this.token.tokentype != TokenType.End_of_input) {
-            t = Node.make_node(NodeType.nd_Sequence, t, stmt());
+        while (this.token.tokentype != Lexer.TokenType.End_of_input) {
+            t = Node.make_node(NodeType.nd_Sequence, t, statement());
+        }
+        if (Metrics.ENABLED) {
+            Metrics.end(Metrics.Phase.PARSE, start);
         }
         return t;
     }
 
+    /**
+     * Parses the program like parse(), but reports lexing and parsing errors to diagnostics and goes on
+     * after each: the lexer skips the bad token, and the parser skips to the end of the statement,
+     * so one run finds the errors of many statements.
+     * @return the tree, without the statements that had errors; null if diagnostics filled up
+     */
+    Node parse(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        if (this.lexer != null) {
+            this.lexer.collect(diagnostics);
+        }
+        try {
+            return parse();
+        } catch (CompileException e) {
+            if (!diagnostics.full()) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * stmt(), except that when collecting Diagnostics an error is reported and the statement skipped
+     * @return the statement, null for an empty or skipped one
+     */
+    private Node statement() {
+        if (this.diagnostics == null) {
+            return stmt();
+        }
+        int start = this.position;
+        try {
+            return stmt();
+        } catch (CompileException e) {
+            if (this.diagnostics.full()) {
+                throw e; // reported already
+            }
+            this.diagnostics.report(e);
+            synchronize(start);
+            return null;
+        }
+    }
+
+    /**
+     * Skips the rest of a statement that had an error: up to and including the next Semicolon, or up to
+     * a RightBrace, which may close the enclosing block, or a keyword that starts the next statement.
+     * At least one token is skipped, so a statement that fails on its first token cannot fail forever.
+     * @param start position when the statement began
+     */
+    private void synchronize(int start) {
+        while (true) {
+            switch (this.token.tokentype) {
+                case End_of_input:
+                    return;
+                case Semicolon:
+                    getNextToken();
+                    return;
+                case RightBrace:
+                case Keyword_if:
+                case Keyword_while:
+                case Keyword_print:
+                case Keyword_putc:
+                    if (this.position > start) {
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            getNextToken();
+        }
+    }
+
+    /**
+     * Like parse(), but a lexing or parsing error is returned rather than thrown.
+     */
+    Result tryParse() {
+        try {
+            return new Result(parse(), null);
+        } catch (CompileException e) {
+            return new Result(null, e);
+        }
+    }
+
     String printAST(Node t, StringBuilder sb) {
-        int i = 0;
+        StringWriter out = new StringWriter();
+        try {
+            printAST(t, out, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringWriter never throws
+        }
+        sb.append(out.getBuffer());
+        return sb.toString();
+    }
+
+    /**
+     * Streams the AST listing to out, one node per line, without holding it in memory as a whole.
+     * Buffering out is up to the caller.
+     * @param out  where the listing goes, e.g. a BufferedWriter over the .par file
+     * @param echo also print the listing to System.out, through one buffer flushed at the end
+     */
+    void printAST(Node t, Writer out, boolean echo) throws IOException {
+        long start = Metrics.ENABLED ? Metrics.start() : 0;
+        Writer console = echo ? new BufferedWriter(new OutputStreamWriter(System.out), 8192) : null;
+        try {
+            AstWalker.walk(t, new AstWalker.Visitor() {
+                @Override
+                public boolean enter(Node node) {
+                    try {
+                        printNode(node, out, console);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return node != null && !isLeaf(node.nt);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (console != null) {
+                console.flush();
+            }
+            if (Metrics.ENABLED) {
+                Metrics.end(Metrics.Phase.PRINT_AST, start);
+            }
+        }
+    }
+
+    /**
+     * @return true for the node types make_leaf creates, which carry a value and no children
+     */
+    static boolean isLeaf(NodeType nt) {
+        return nt == NodeType.nd_Ident || nt == NodeType.nd_Integer || nt == NodeType.nd_String;
+    }
+
+    /**
+     * Prints one line of the listing; the walk in printAST takes care of the children.
+     */
+    private static void printNode(Node t, Writer out, Writer console) throws IOException {
         if (t == null) {
-            sb.append(";");
-            sb.append("\n");
-            System.out.println(";");
+            out.write(";\n");
+            if (console != null) {
+                console.write(";\n");
+            }
         } else {
-            sb.append(t.nt);
-            System.out.printf("%-14s", t.nt);
-            if (t.nt == NodeType.nd_Ident || t.nt == NodeType.nd_Integer || t.nt == NodeType.nd_String) {
-                sb.append(" " + t.value);
-                sb.append("\n");
-                System.out.println(" " + t.value);
+            String name = t.nt.toString();
+            out.write(name);
+            if (console != null) {
+                console.write(String.format("%-14s", name));
+            }
+            if (isLeaf(t.nt)) {
+                String value = t.nt == NodeType.nd_String ? "\"" + t.value + "\"" : t.value;
+                out.write(" " + value + "\n");
+                if (console != null) {
+                    console.write(" " + value + "\n");
+                }
             } else {
-                sb.append("\n");
-                System.out.println();
-                printAST(t.left, sb);
-                printAST(t.right, sb);
+                out.write('\n');
+                if (console != null) {
+                    console.write('\n');
+                }
             }
-
         }
-        return sb.toString();
     }
 
-    static void outputToFile(String result) {
-        try {
-            FileWriter myWriter = new FileWriter("src/main/resources/hello.lex");
+    static void outputToFile(String result, Path path) {
+        long start = Metrics.ENABLED ? Metrics.start() : 0;
+        try (Writer myWriter = Files.newBufferedWriter(path)) {
             myWriter.write(result);
-            myWriter.close();
             System.out.println("Successfully wrote to the file.");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (Metrics.ENABLED) {
+            Metrics.end(Metrics.Phase.OUTPUT, start);
+        }
+    }
+
+    /**
+     * Reads the text token listing Lexer.printTokens() writes, for when the lexer ran separately
+     * @param file a .lex file
+     * @return the tokens, ending with End_of_input
+     */
+    static List<Lexer.Token> readTokens(File file) throws IOException {
+        String value, token;
+        int line, pos;
+        List<Lexer.Token> list = new ArrayList<>();
+        try (Scanner s = new Scanner(file)) {
+            while (s.hasNext()) {
+                String str = s.nextLine();
+                StringTokenizer st = new StringTokenizer(str);
+                line = Integer.parseInt(st.nextToken());
+                pos = Integer.parseInt(st.nextToken());
+                token = st.nextToken();
+                // the value is the rest of the line, taken in one piece
+                value = st.hasMoreTokens() ? st.nextToken("").trim() : "";
+                Lexer.TokenType type;
+                try {
+                    type = Lexer.TokenType.valueOf(token);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Token not found: '" + token + "'");
+                }
+                if (type == Lexer.TokenType.String && value.length() >= 2) {
+                    value = value.substring(1, value.length() - 1); // printed with quotes around it
+                }
+                list.add(new Lexer.Token(type, value, line, pos));
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.tokenList(list.size());
+        }
+        return list;
+    }
+
+
+    /**
+     * Reads the binary token file Lexer.writeTokens() produces
+     * @param path a .lexb file
+     * @return the tokens, ending with End_of_input
+     */
+    static TokenBuffer readBinaryTokens(Path path) throws IOException {
+        TokenBuffer tokens = TokenBuffer.read(ByteBuffer.wrap(Files.readAllBytes(path)));
+        if (Metrics.ENABLED) {
+            Metrics.tokenList(tokens.size());
+        }
+        return tokens;
     }
 
 
     public static void main(String[] args) {
         if (1 == 1) {
+            // --echo also prints the AST listing to the console, --optimize simplifies the AST first,
+            // --max-errors=N reports up to N errors instead of stopping at the first
+            boolean echo = Arrays.asList(args).contains("--echo");
+            boolean optimize = Arrays.asList(args).contains("--optimize");
+            int maxErrors = Arrays.stream(args).filter(a -> a.startsWith("--max-errors="))
+                    .mapToInt(a -> Integer.parseInt(a.substring("--max-errors=".length()))).findFirst().orElse(1);
+            args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+            // .lex/.lexb tokens from a separate lexer run, otherwise source lexed in-process
+            Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
             try {
-                String value, token;
-                String result = " ";
-                StringBuilder sb = new StringBuilder();
-                int line, pos;
-                Token t;
-                boolean found;
-                List<Token> list = new ArrayList<>();
-                Map<String, TokenType> str_to_tokens = new HashMap<>();
-
-
-                str_to_tokens.put("End_of_input", TokenType.End_of_input);
-                // finish creating your Hashmap. I left one as a model
-                str_to_tokens.put("Op_multiply", TokenType.Op_multiply);
-                str_to_tokens.put("Op_divide", TokenType.Op_divide);
-                str_to_tokens.put("Op_mod", TokenType.Op_mod);
-                str_to_tokens.put("Op_add", TokenType.Op_add);
-                str_to_tokens.put("Op_subtract", TokenType.Op_subtract);
-                str_to_tokens.put("Op_negate", TokenType.Op_negate);
-                str_to_tokens.put("Op_not", TokenType.Op_not);
-                str_to_tokens.put("Op_less", TokenType.Op_less);
-                str_to_tokens.put("Op_lessequal", TokenType.Op_lessequal);
-                str_to_tokens.put("Op_greater", TokenType.Op_greater);
-                str_to_tokens.put("Op_greaterequal", TokenType.Op_greaterequal);
-                str_to_tokens.put("Op_equal", TokenType.Op_equal);
-                str_to_tokens.put("Op_notequal", TokenType.Op_notequal);
-                str_to_tokens.put("Op_assign", TokenType.Op_assign);
-                str_to_tokens.put("Op_and", TokenType.Op_and);
-                str_to_tokens.put("Op_or", TokenType.Op_or);
-                str_to_tokens.put("Keyword_if", TokenType.Keyword_if);
-                str_to_tokens.put("Keyword_else", TokenType.Keyword_else);
-                str_to_tokens.put("Keyword_while", TokenType.Keyword_while);
-                str_to_tokens.put("Keyword_print", TokenType.Keyword_print);
-                str_to_tokens.put("Keyword_putc", TokenType.Keyword_putc);
-                str_to_tokens.put("LeftParen", TokenType.LeftParen);
-                str_to_tokens.put("RightParen", TokenType.RightParen);
-                str_to_tokens.put("LeftBrace", TokenType.LeftBrace);
-                str_to_tokens.put("RightBrace", TokenType.RightBrace);
-                str_to_tokens.put("Semicolon", TokenType.Semicolon);
-                str_to_tokens.put("Comma", TokenType.Comma);
-                str_to_tokens.put("Identifier", TokenType.Identifier);
-                str_to_tokens.put("Integer", TokenType.Integer);
-                str_to_tokens.put("String", TokenType.String);
-
-                Scanner s = new Scanner(new File("src/main/resources/hello.lex"));
-                String source = " ";
-                while (s.hasNext()) {
-                    String str = s.nextLine();
-                    StringTokenizer st = new StringTokenizer(str);
-                    line = Integer.parseInt(st.nextToken());
-                    pos = Integer.parseInt(st.nextToken());
-                    token = st.nextToken();
-                    value = "";
-                    while (st.hasMoreTokens()) {
-                        value += st.nextToken() + " ";
-                    }
-                    found = false;
-                    if (str_to_tokens.containsKey(token)) {
-                        found = true;
-                        list.add(new Token(str_to_tokens.get(token), value, line, pos));
-                    }
-                    if (found == false) {
-                        throw new Exception("Token not found: '" + token + "'");
+                Parser p;
+                if (path.toString().endsWith(".lex")) {
+                    p = new Parser(readTokens(path.toFile()));
+                } else if (path.toString().endsWith(".lexb")) {
+                    p = new Parser(readBinaryTokens(path));
+                } else {
+                    p = new Parser(Lexer.map(path));
+                }
+                Node t;
+                if (maxErrors > 1) {
+                    Diagnostics diagnostics = new Diagnostics(maxErrors);
+                    t = p.parse(diagnostics);
+                    if (diagnostics.hasErrors()) {
+                        System.out.print(diagnostics);
+                        System.exit(1);
                     }
+                } else {
+                    t = p.parse();
+                }
+                if (optimize) {
+                    t = Optimizer.optimize(t);
                 }
-                Parser p = new Parser(list);
-                result = p.printAST(p.parse(), sb);
-                outputToFile(result);
+                String name = path.getFileName().toString();
+                int dot = name.lastIndexOf('.'); // a name without one keeps all of it
+                Path output = path.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + ".par");
+                long start = Metrics.ENABLED ? Metrics.start() : 0;
+                try (Writer out = Files.newBufferedWriter(output)) {
+                    p.printAST(t, out, echo);
+                }
+                if (Metrics.ENABLED) {
+                    Metrics.end(Metrics.Phase.OUTPUT, start);
+                }
+                System.out.println("Successfully wrote to the file.");
+            } catch (CompileException e) {
+                e.exit();
             } catch (IOException e) {
                 throw new RuntimeException(e);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
             }
         }
     }
 }
-
@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interns identifier and string literal text into small, stable integer ids.
+ * Lookups hash the raw chars in place (open addressing, linear probing),
+ * so a String is only created the first time a name is seen.
+ */
+class SymbolTable {
+    private String[] names;
+    private int[] hashes;  // hash of each name, by id
+    private int[] slots;   // id + 1 of the name hashed to each slot, 0 when empty
+    private int size;
+
+    SymbolTable() {
+        this.names = new String[64];
+        this.hashes = new int[64];
+        this.slots = new int[128];
+    }
+
+    /**
+     * @return the id for chars[start, start + length), adding it if it is new
+     */
+    int intern(char[] chars, int start, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chars[start + i];
+        }
+        h ^= h >>> 16;
+        int mask = this.slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            if (id < 0) {
+                return add(new String(chars, start, length), h, i);
+            }
+            if (this.hashes[id] == h && matches(this.names[id], chars, start, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id for the ASCII/UTF-8 bytes [start, start + length), adding it if it is new
+     */
+    int intern(ByteBuffer bytes, int start, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes.get(start + i);
+            if (b < 0) {
+                // multi-byte UTF-8: hash the chars it decodes to, so the id is the one intern(char[]) gives
+                return intern(new Lexer.Slice(bytes, start, length).toString());
+            }
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        int mask = this.slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            if (id < 0) {
+                return add(new Lexer.Slice(bytes, start, length).toString(), h, i);
+            }
+            if (this.hashes[id] == h && matches(this.names[id], bytes, start, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return the id for name, adding it if it is new
+     */
+    int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    String name(int id) {
+        return this.names[id];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String name, ByteBuffer bytes, int start, int length) {
+        // only ever given ASCII bytes, one per char
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != bytes.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(String name, int hash, int slot) {
+        int id = this.size++;
+        if (id == this.names.length) {
+            this.names = Arrays.copyOf(this.names, id * 2);
+            this.hashes = Arrays.copyOf(this.hashes, id * 2);
+        }
+        this.names[id] = name;
+        this.hashes[id] = hash;
+        this.slots[slot] = id + 1;
+        if (this.size * 2 > this.slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        this.slots = new int[this.slots.length * 2];
+        int mask = this.slots.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int i = this.hashes[id] & mask;
+            while (this.slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            this.slots[i] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Token stream packed into parallel int arrays instead of one Token object per token.
+ * Token values share a single char array; each token keeps the offset and length of its value in it.
+ * Identifiers and strings are stored as SymbolTable ids instead, so their text is not copied at all.
+ * All arrays grow by doubling, so filling the buffer allocates only when it runs out of room.
+ */
+class TokenBuffer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    // .lexb file layout: MAGIC, VERSION, string pool (count, then length + UTF-8 bytes per string),
+    // token count, then per token: type, line - previous line, pos, pool index + 1 or 0; all varints.
+    // Types are Lexer.TokenType ordinals, so VERSION changes whenever that enum does.
+    private static final int MAGIC = 0x4c455842; // "LEXB"
+    private static final int VERSION = 1;
+    private static final int TOKEN_TYPES = Lexer.TokenType.values().length;
+
+    private int[] types;
+    private int[] lines;
+    private int[] positions;
+    private int[] valueOffsets;
+    private int[] valueLengths;
+    private int[] symbols;
+    private int size;
+    private SymbolTable symbolTable;
+
+    private char[] text;
+    private int textLength;
+
+    TokenBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    TokenBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.types = new int[capacity];
+        this.lines = new int[capacity];
+        this.positions = new int[capacity];
+        this.valueOffsets = new int[capacity];
+        this.valueLengths = new int[capacity];
+        this.symbols = new int[capacity];
+        this.text = new char[capacity * 4];
+    }
+
+    /**
+     * @param type  ordinal of the token's Lexer.TokenType
+     * @param value the token's value, copied into the buffer; null is stored as ""
+     */
+    void add(int type, int line, int pos, CharSequence value) {
+        grow();
+        int length = value == null ? 0 : value.length();
+        if (this.textLength + length > this.text.length) {
+            this.text = Arrays.copyOf(this.text, Math.max(this.text.length * 2, this.textLength + length));
+        }
+        for (int i = 0; i < length; i++) {
+            this.text[this.textLength + i] = value.charAt(i);
+        }
+        this.types[this.size] = type;
+        this.lines[this.size] = line;
+        this.positions[this.size] = pos;
+        this.valueOffsets[this.size] = this.textLength;
+        this.valueLengths[this.size] = length;
+        this.symbols[this.size] = -1;
+        this.textLength += length;
+        this.size++;
+    }
+
+    /**
+     * @param type   ordinal of the token's Lexer.TokenType
+     * @param table  the table symbol belongs to; every symbol in one buffer must come from the same table
+     * @param symbol id of the token's value in table
+     */
+    void add(int type, int line, int pos, SymbolTable table, int symbol) {
+        if (this.symbolTable != null && this.symbolTable != table) {
+            throw new IllegalArgumentException("symbols from more than one SymbolTable");
+        }
+        this.symbolTable = table;
+        grow();
+        this.types[this.size] = type;
+        this.lines[this.size] = line;
+        this.positions[this.size] = pos;
+        this.valueOffsets[this.size] = 0;
+        this.valueLengths[this.size] = 0;
+        this.symbols[this.size] = symbol;
+        this.size++;
+    }
+
+    /**
+     * Joins buffers end to end, e.g. the chunks of a source lexed in parallel. The names each part's
+     * SymbolTable holds are interned into one table first, once per distinct name, not once per token;
+     * then every part is copied into place by a task of its own on pool.
+     * @param counts     how many tokens to take from the start of each part
+     * @param lineDeltas how many lines to move each part's tokens down
+     */
+    static TokenBuffer concat(TokenBuffer[] parts, int[] counts, int[] lineDeltas, ForkJoinPool pool) {
+        int size = 0;
+        int textLength = 0;
+        int[] firsts = new int[parts.length];
+        int[] textStarts = new int[parts.length];
+        int[][] remaps = new int[parts.length][];
+        SymbolTable table = null;
+        for (int k = 0; k < parts.length; k++) {
+            TokenBuffer part = parts[k];
+            firsts[k] = size;
+            textStarts[k] = textLength;
+            size += counts[k];
+            textLength += part.textEnd(counts[k]);
+            if (part.symbolTable != null) {
+                table = table == null ? new SymbolTable() : table;
+                remaps[k] = new int[part.symbolTable.size()];
+                for (int id = 0; id < remaps[k].length; id++) {
+                    remaps[k][id] = table.intern(part.symbolTable.name(id));
+                }
+            }
+        }
+
+        TokenBuffer joined = new TokenBuffer(size);
+        joined.text = new char[textLength];
+        joined.size = size;
+        joined.textLength = textLength;
+        joined.symbolTable = table;
+        List<Callable<Void>> copies = new ArrayList<>(parts.length);
+        for (int k = 0; k < parts.length; k++) {
+            TokenBuffer part = parts[k];
+            int count = counts[k], to = firsts[k], textStart = textStarts[k], lineDelta = lineDeltas[k];
+            int[] remap = remaps[k];
+            copies.add(() -> {
+                System.arraycopy(part.types, 0, joined.types, to, count);
+                System.arraycopy(part.positions, 0, joined.positions, to, count);
+                System.arraycopy(part.valueLengths, 0, joined.valueLengths, to, count);
+                System.arraycopy(part.text, 0, joined.text, textStart, part.textEnd(count));
+                for (int i = 0; i < count; i++) {
+                    joined.lines[to + i] = part.lines[i] + lineDelta;
+                    joined.valueOffsets[to + i] = part.valueOffsets[i] + textStart;
+                    int symbol = part.symbols[i];
+                    joined.symbols[to + i] = symbol < 0 ? symbol : remap[symbol];
+                }
+                return null;
+            });
+        }
+        for (Future<Void> copy : pool.invokeAll(copies)) {
+            try {
+                copy.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e); // the copies only move array elements around
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * @return length of text the first count tokens' values take up
+     */
+    private int textEnd(int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (this.symbols[i] < 0) {
+                return this.valueOffsets[i] + this.valueLengths[i];
+            }
+        }
+        return 0;
+    }
+
+    private void grow() {
+        if (this.size == this.types.length) {
+            resize(this.size * 2);
+        }
+    }
+
+    private void resize(int capacity) {
+        this.types = Arrays.copyOf(this.types, capacity);
+        this.lines = Arrays.copyOf(this.lines, capacity);
+        this.positions = Arrays.copyOf(this.positions, capacity);
+        this.valueOffsets = Arrays.copyOf(this.valueOffsets, capacity);
+        this.valueLengths = Arrays.copyOf(this.valueLengths, capacity);
+        this.symbols = Arrays.copyOf(this.symbols, capacity);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int type(int i) {
+        return this.types[i];
+    }
+
+    int line(int i) {
+        return this.lines[i];
+    }
+
+    int pos(int i) {
+        return this.positions[i];
+    }
+
+    /**
+     * @return SymbolTable id of the i-th token's value, -1 if it was stored as text
+     */
+    int symbol(int i) {
+        return this.symbols[i];
+    }
+
+    /**
+     * @return the i-th token's value, "" when it has none; only values stored as text allocate a new String
+     */
+    String value(int i) {
+        if (this.symbols[i] >= 0) {
+            return this.symbolTable.name(this.symbols[i]);
+        }
+        int length = this.valueLengths[i];
+        return length == 0 ? "" : new String(this.text, this.valueOffsets[i], length);
+    }
+
+    /**
+     * Empties the buffer but keeps its arrays for the next run.
+     */
+    void clear() {
+        this.size = 0;
+        this.textLength = 0;
+        this.symbolTable = null;
+    }
+
+    /**
+     * Writes the tokens in the binary .lexb format. Only Identifier, Integer and String values are kept,
+     * the same ones the text .lex format prints.
+     */
+    void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        String[] pool = new String[16];
+        int[] valueRefs = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int type = this.types[i];
+            if (type != Lexer.TokenType.Identifier.ordinal() && type != Lexer.TokenType.Integer.ordinal()
+                    && type != Lexer.TokenType.String.ordinal()) {
+                continue;
+            }
+            String value = value(i);
+            Integer ref = index.get(value);
+            if (ref == null) {
+                ref = index.size();
+                index.put(value, ref);
+                if (ref == pool.length) {
+                    pool = Arrays.copyOf(pool, ref * 2);
+                }
+                pool[ref] = value;
+            }
+            valueRefs[i] = ref + 1;
+        }
+
+        out.writeInt(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, index.size());
+        for (int i = 0; i < index.size(); i++) {
+            byte[] bytes = pool[i].getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarint(out, this.size);
+        int line = 0;
+        for (int i = 0; i < this.size; i++) {
+            writeVarint(out, this.types[i]);
+            writeVarint(out, this.lines[i] - line);
+            writeVarint(out, this.positions[i]);
+            writeVarint(out, valueRefs[i]);
+            line = this.lines[i];
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads tokens written by write(). Pool strings go into a SymbolTable, so each is decoded once
+     * and tokens refer to it by id.
+     * @param in the whole file, from its position
+     */
+    static TokenBuffer read(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("not a .lexb token file");
+            }
+            int version = readVarint(in);
+            if (version != VERSION) {
+                throw new IOException("unsupported .lexb version " + version);
+            }
+            SymbolTable pool = new SymbolTable();
+            int poolSize = readVarint(in);
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < poolSize; i++) {
+                int length = readVarint(in);
+                if (length < 0) {
+                    throw new IOException("malformed pool string " + i + " in .lexb token file");
+                }
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                in.get(bytes, 0, length);
+                pool.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            int count = readVarint(in);
+            if (count < 0 || count > in.remaining() / 4) { // every token takes four varints
+                throw new IOException("malformed token count in .lexb token file");
+            }
+            TokenBuffer tokens = new TokenBuffer(count);
+            int line = 0;
+            for (int i = 0; i < count; i++) {
+                int type = readVarint(in);
+                line += readVarint(in);
+                int pos = readVarint(in);
+                int ref = readVarint(in);
+                // the pool's strings are distinct, so a ref past them is damage, as is a type no token has
+                if (type < 0 || type >= TOKEN_TYPES || ref < 0 || ref > pool.size()) {
+                    throw new IOException("malformed token " + i + " in .lexb token file");
+                }
+                if (ref == 0) {
+                    tokens.add(type, line, pos, null);
+                } else {
+                    tokens.add(type, line, pos, pool, ref - 1);
+                }
+            }
+            return tokens;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated .lexb token file");
+        }
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint in .lexb token file");
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads the tokens in order without materializing Token objects.
+     */
+    class Cursor {
+        private int index = -1;
+
+        /**
+         * @return false when there are no more tokens
+         */
+        boolean next() {
+            if (this.index + 1 >= size) {
+                return false;
+            }
+            this.index++;
+            return true;
+        }
+
+        int index() {
+            return this.index;
+        }
+
+        int type() {
+            return types[this.index];
+        }
+
+        int line() {
+            return lines[this.index];
+        }
+
+        int pos() {
+            return positions[this.index];
+        }
+
+        int symbol() {
+            return symbols[this.index];
+        }
+
+        String value() {
+            return TokenBuffer.this.value(this.index);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs Bytecode from CodeGen: one loop that fetches an opcode and switches on it,
+ * over an int[] operand stack and an int[] of variables, with no allocation per instruction.
+ */
+class VM {
+    private final Bytecode program;
+    private int[] data;
+
+    VM(Bytecode program) {
+        this.program = program;
+        this.data = new int[program.variables.length];
+    }
+
+    /**
+     * Runs the program from the start with every variable reset to 0.
+     * @param out receives what the program prints; buffering it is up to the caller
+     * @throws ArithmeticException on division or modulo by zero
+     */
+    void run(Writer out) throws IOException {
+        this.data = new int[this.program.variables.length];
+        execute(this.program, this.data, out);
+        out.flush();
+    }
+
+    /**
+     * Runs code that prints nothing, e.g. an expression from CodeGen.expression, over the caller's variables.
+     * @param data the variables, by slot
+     * @return the value on top of the stack when it halts
+     * @throws ArithmeticException on division or modulo by zero
+     */
+    static int eval(Bytecode program, int[] data) {
+        try {
+            return execute(program, data, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen without a print
+        }
+    }
+
+    /**
+     * @return the value on top of the stack at HALT, 0 if it is empty
+     */
+    private static int execute(Bytecode program, int[] data, Writer out) throws IOException {
+        int[] code = program.code;
+        int[] stack = new int[Math.max(program.stackSize, 1)];
+        String[] texts = program.texts;
+        int pc = 0, sp = 0; // sp is the next free stack slot
+        while (true) {
+            switch (code[pc++]) {
+                case Bytecode.FETCH:
+                    stack[sp++] = data[code[pc++]];
+                    break;
+                case Bytecode.STORE:
+                    data[code[pc++]] = stack[--sp];
+                    break;
+                case Bytecode.PUSH:
+                    stack[sp++] = code[pc++];
+                    break;
+                case Bytecode.ADD:
+                    sp--;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case Bytecode.SUB:
+                    sp--;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case Bytecode.MUL:
+                    sp--;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case Bytecode.DIV:
+                    sp--;
+                    stack[sp - 1] /= stack[sp];
+                    break;
+                case Bytecode.MOD:
+                    sp--;
+                    stack[sp - 1] %= stack[sp];
+                    break;
+                case Bytecode.LT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.GT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.LE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.GE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.EQ:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.NE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0;
+                    break;
+                case Bytecode.NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case Bytecode.NOT:
+                    stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0;
+                    break;
+                case Bytecode.JMP:
+                    pc = code[pc];
+                    break;
+                case Bytecode.JZ:
+                    pc = stack[--sp] == 0 ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.JNZ:
+                    pc = stack[--sp] != 0 ? code[pc] : pc + 1;
+                    break;
+                case Bytecode.PRTC:
+                    out.write((char) stack[--sp]);
+                    break;
+                case Bytecode.PRTS:
+                    out.write(texts[code[pc++]]);
+                    break;
+                case Bytecode.PRTI:
+                    out.write(Integer.toString(stack[--sp]));
+                    break;
+                case Bytecode.HALT:
+                    return sp > 0 ? stack[sp - 1] : 0;
+                default:
+                    throw new IllegalStateException("bad opcode " + code[pc - 1] + " at " + (pc - 1));
+            }
+        }
+    }
+
+    /**
+     * @return the variable's value after the last run, 0 if it never appears in the program
+     */
+    int get(String name) {
+        int slot = Arrays.asList(this.program.variables).indexOf(name);
+        return slot < 0 ? 0 : this.data[slot];
+    }
+
+    public static void main(String[] args) {
+        // compiles and runs a source file, count.c by default; --optimize simplifies the AST first
+        boolean optimize = Arrays.asList(args).contains("--optimize");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/main/resources/count.c");
+        try {
+            Parser.Node t = new Parser(Lexer.map(path)).parse();
+            if (optimize) {
+                t = Optimizer.optimize(t);
+            }
+            new VM(CodeGen.generate(t)).run(new BufferedWriter(new OutputStreamWriter(System.out), 8192));
+        } catch (NoSuchFileException e) {
+            new CompileException(-1, -1, "Exception: " + e.getMessage()).exit();
+        } catch (ArithmeticException e) {
+            new CompileException(-1, -1, "Runtime error: " + e.getMessage()).exit();
+        } catch (CompileException e) {
+            e.exit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
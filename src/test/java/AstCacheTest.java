@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AstCacheTest {
+
+    private static byte[] source(int i) {
+        return ("x = " + i + ";\nwhile (x < 10) {\n  print(x, \"\\n\");\n  x = x + 1;\n}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String print(Parser.Node t) throws IOException {
+        StringWriter out = new StringWriter();
+        new Parser(new Lexer("")).printAST(t, out, false);
+        return out.toString();
+    }
+
+    @Test
+    public void testHitReturnsTheSameTree() throws IOException {
+        AstCache cache = new AstCache(1000);
+        Parser.Node t = cache.get(source(1), false);
+        assertEquals(print(new Parser(new Lexer(ByteBuffer.wrap(source(1)))).parse()), print(t));
+        assertSame(t, cache.get(source(1), false));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(AstCache.count(t), cache.nodes());
+
+        Parser.Node optimized = cache.get(source(1), true);
+        assertNotSame(t, optimized);
+        assertSame(optimized, cache.get(source(1), true));
+        assertEquals(print(Optimizer.optimize(new Parser(new Lexer(ByteBuffer.wrap(source(1)))).parse())), print(optimized));
+        assertEquals(print(new Parser(new Lexer(ByteBuffer.wrap(source(1)))).parse()), print(t)); // left alone
+        assertThrows(CompileException.class, () -> cache.get("x = ;".getBytes(StandardCharsets.UTF_8), false));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByNodeCount() {
+        int weight = AstCache.count(new Parser(new Lexer(ByteBuffer.wrap(source(0)))).parse());
+        AstCache cache = new AstCache(10L * weight);
+        Parser.Node kept = cache.get(source(0), false);
+        for (int i = 1; i < 100; i++) {
+            cache.get(source(i), false);
+            assertSame(kept, cache.get(source(0), false));
+            assertTrue(cache.nodes() <= 10L * weight, "cache holds " + cache.nodes());
+        }
+        assertEquals(99, cache.hits());
+        assertEquals(100, cache.misses());
+        assertEquals(100 - cache.size(), cache.evictions());
+        assertEquals(cache.size() * (long) weight, cache.nodes());
+
+        // a tree larger than the whole cache is returned, not kept
+        Parser.Node big = new AstCache(weight - 1).get(source(0), false);
+        assertNotNull(big);
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        AstCache cache = new AstCache(50_000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> printed = new ArrayList<>();
+            for (int n = 0; n < 4000; n++) {
+                int i = n % 40;
+                printed.add(pool.submit(() -> print(cache.get(source(i), false))));
+            }
+            for (int n = 0; n < printed.size(); n++) {
+                assertEquals(print(new Parser(new Lexer(ByteBuffer.wrap(source(n % 40)))).parse()), printed.get(n).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(4000, cache.hits() + cache.misses());
+        assertEquals(40, cache.size());
+        assertTrue(cache.misses() >= 40);
+    }
+}
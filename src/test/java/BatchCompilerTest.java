@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class BatchCompilerTest {
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Test
+    public void testFailuresDoNotStopTheBatch() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        BatchCompiler compiler = new BatchCompiler(2, true);
+        try {
+            Files.writeString(dir.resolve("a.c"), "x = 1;\nprint(x, \"\\n\");\n");
+            Files.writeString(dir.resolve("b.c"), "x = 1;\n/* never closed\n");
+            Files.writeString(dir.resolve("c.c"), "while (x < 3) {\n  x = x + ;\n}\n");
+            Files.writeString(dir.resolve("d.c"), "putc(65);\n");
+            Files.writeString(dir.resolve("notes.txt"), "not a source");
+            List<BatchCompiler.Result> reported = new ArrayList<>();
+            List<BatchCompiler.Result> results = compiler.compileAll(BatchCompiler.sources(dir), reported::add);
+
+            assertEquals(results, reported);
+            assertEquals(Arrays.asList("a.c", "b.c", "c.c", "d.c"),
+                    Arrays.asList(results.stream().map(r -> r.path.getFileName().toString()).toArray()));
+            assertTrue(results.get(0).ok());
+            assertTrue(results.get(0).codeSize > 0);
+            assertEquals("End of file in comment in line 2, pos 1", results.get(1).error);
+            assertEquals("Expecting a primary, found: Semicolon in line 2, pos 11", results.get(2).error);
+            assertTrue(results.get(3).ok());
+            assertTrue(results.get(1).toString().startsWith("FAILED "));
+        } finally {
+            compiler.shutdown();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        BatchCompiler compiler = new BatchCompiler(1, false);
+        try {
+            Files.createDirectory(dir.resolve("src"));
+            Files.writeString(dir.resolve("src/one.c"), "x = 1;");
+            Files.writeString(dir.resolve("list.txt"), "# nightly\nsrc/one.c\n\nsrc/missing.c\n");
+            List<BatchCompiler.Result> results = compiler.compileAll(BatchCompiler.sources(dir.resolve("list.txt")), r -> { });
+            assertEquals(2, results.size());
+            assertTrue(results.get(0).ok());
+            assertFalse(results.get(1).ok());
+            assertTrue(results.get(1).error.contains("missing.c"), results.get(1).error);
+        } finally {
+            compiler.shutdown();
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class CompileCacheTest {
+
+    private static final byte[] SOURCE = ("count = 1;\nwhile (count < 10) {\n  print(\"count is: \", count, \"\\n\");\n"
+            + "  count = count + 1;\n}\nif (count) ; else putc('a\\n');\n").getBytes(StandardCharsets.UTF_8);
+
+    private static String print(Parser.Node t) throws IOException {
+        StringWriter out = new StringWriter();
+        new Parser(new Lexer("")).printAST(t, out, false);
+        return out.toString();
+    }
+
+    private static String parsed(byte[] source) throws IOException {
+        return print(new Parser(new Lexer(ByteBuffer.wrap(source))).parse());
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    @Test
+    public void testHitSkipsLexingAndParsing() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        try {
+            CompileCache cache = new CompileCache(dir, 1 << 20);
+            assertEquals(parsed(SOURCE), print(cache.parse(SOURCE)));
+            assertEquals(1, cache.misses());
+            String key = CompileCache.key(SOURCE);
+            assertTrue(Files.exists(dir.resolve(key + ".ast")));
+            assertFalse(Files.exists(dir.resolve(key + ".lexb"))); // only the stage asked for
+
+            // another compiler sharing the directory, which keeps the tokens of what it parses too
+            CompileCache other = new CompileCache(dir, 1 << 20, true);
+            assertEquals(parsed(SOURCE), print(other.parse(SOURCE)));
+            assertEquals(1, other.hits());
+            assertEquals(0, other.misses());
+            assertTrue(other.tokens(SOURCE).size() > 0);
+            assertEquals(1, other.misses());
+            assertTrue(other.tokens(SOURCE).size() > 0);
+            assertEquals(2, other.hits());
+
+            // an edited source is another key
+            byte[] edited = new String(SOURCE, StandardCharsets.UTF_8).replace("10", "11").getBytes(StandardCharsets.UTF_8);
+            assertNotEquals(key, CompileCache.key(edited));
+            assertEquals(parsed(edited), print(other.parse(edited)));
+            assertTrue(Files.exists(dir.resolve(CompileCache.key(edited) + ".lexb")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static String listed(Bytecode code) throws IOException {
+        StringWriter out = new StringWriter();
+        code.list(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testCompiledCodeHit() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        try {
+            CompileCache cache = new CompileCache(dir, 1 << 20, true);
+            Parser.Node t = new Parser(new Lexer(ByteBuffer.wrap(SOURCE))).parse();
+            String plain = listed(CodeGen.generate(t));
+            String optimized = listed(CodeGen.generate(Optimizer.optimize(t)));
+            assertEquals(plain, listed(cache.compile(SOURCE, false)));
+            assertEquals(3, cache.misses()); // code, AST and tokens
+            assertEquals(optimized, listed(cache.compile(SOURCE, true)));
+            assertEquals(1, cache.hits()); // the AST
+
+            CompileCache other = new CompileCache(dir, 1 << 20);
+            Bytecode code = other.compile(SOURCE, false);
+            assertEquals(plain, listed(code));
+            assertEquals(optimized, listed(other.compile(SOURCE, true)));
+            assertEquals(2, other.hits());
+            assertEquals(0, other.misses());
+            assertArrayEquals(new String[] {"count is: ", "\\n"}, code.strings);
+            assertArrayEquals(new String[] {"count"}, code.variables);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testDamagedEntryIsCompiledAgain() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        try {
+            CompileCache cache = new CompileCache(dir, 1 << 20);
+            cache.parse(SOURCE);
+            Path ast = dir.resolve(CompileCache.key(SOURCE) + ".ast");
+            byte[] bytes = Files.readAllBytes(ast);
+            Files.write(ast, Arrays.copyOf(bytes, bytes.length / 2));
+            assertEquals(parsed(SOURCE), print(cache.parse(SOURCE)));
+            assertArrayEquals(bytes, Files.readAllBytes(ast));
+            assertThrows(CompileException.class, () -> cache.parse("x = ;".getBytes(StandardCharsets.UTF_8)));
+
+            // a string count of -1, which fails with a NegativeArraySizeException rather than an IOException;
+            // the header before it is MAGIC, the version and a stack size under 128, one byte each
+            Path code = dir.resolve(CompileCache.key(SOURCE) + ".code");
+            String listing = listed(cache.compile(SOURCE, false));
+            bytes = Files.readAllBytes(code);
+            byte[] damaged = Arrays.copyOf(bytes, 11);
+            System.arraycopy(new byte[] {-1, -1, -1, -1, 0x0f}, 0, damaged, 6, 5);
+            Files.write(code, damaged);
+            CompileCache other = new CompileCache(dir, 1 << 20);
+            long misses = other.misses();
+            assertEquals(listing, listed(other.compile(SOURCE, false)));
+            assertEquals(misses + 1, other.misses());
+            assertArrayEquals(bytes, Files.readAllBytes(code));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        try {
+            CompileCache cache = new CompileCache(dir, 4096);
+            byte[] first = "x = 0;".getBytes(StandardCharsets.UTF_8);
+            cache.parse(first);
+            Path kept = dir.resolve(CompileCache.key(first) + ".ast");
+            for (int i = 1; i < 100; i++) {
+                cache.parse(("x = " + i + ";\nprint(x, \"" + "y".repeat(i) + "\");\n").getBytes(StandardCharsets.UTF_8));
+                // use the first entry again; the clock may not have moved, so make it later by hand
+                cache.parse(first);
+                Files.setLastModifiedTime(kept, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            }
+            assertTrue(size(dir) <= 4096, "cache holds " + size(dir));
+
+            // an entry compiled again replaces its size rather than adding to it, so rewriting one never evicts
+            long count;
+            try (Stream<Path> files = Files.list(dir)) {
+                count = files.count();
+            }
+            CompileCache rewriting = new CompileCache(dir, size(dir) + 1024);
+            byte[] good = Files.readAllBytes(kept);
+            byte[] damaged = good.clone();
+            damaged[0] ^= 1;
+            for (int i = 0; i < 100; i++) {
+                Files.write(kept, damaged);
+                rewriting.parse(first);
+                assertArrayEquals(good, Files.readAllBytes(kept));
+            }
+            assertEquals(100, rewriting.misses());
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(count, files.count());
+            }
+            assertEquals(99, cache.hits()); // the first entry was never evicted
+            try (Stream<Path> files = Files.list(dir)) {
+                assertTrue(files.noneMatch(p -> p.toString().endsWith(".tmp")));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class DiagnosticsTest {
+
+    private static final String SOURCE = "x = 1;\ny = ;\nwhile (x < 3) {\n  x = x + ;\n  print(x;\n}\n"
+            + "z = 'ab' + 'abc';\nw = 1 @ 2;\nputc(z);\nif (x) { q = \"s\" ; } else putc(1);\n/* open";
+
+    private static List<String> messages(Diagnostics diagnostics) {
+        return diagnostics.errors().stream().map(Throwable::getMessage).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testOneRunFindsEveryError() {
+        Diagnostics diagnostics = new Diagnostics(20);
+        Parser.Node t = new Parser(new Lexer(SOURCE)).parse(diagnostics);
+        assertEquals(Arrays.asList(
+                "Expecting a primary, found: Semicolon in line 2, pos 5",
+                "Expecting a primary, found: Semicolon in line 4, pos 11",
+                "print: Expecting 'RightParen', found: 'Semicolon' in line 5, pos 10",
+                "multi-character constant in line 7, pos 12",
+                "Expecting a primary, found: Semicolon in line 7, pos 17",
+                "Unrecognized Variable Name in line 8, pos 7",
+                "assign: Expecting 'Semicolon', found: 'Integer' in line 8, pos 9",
+                "Expecting a primary, found: String in line 10, pos 14",
+                "End of file in comment in line 11, pos 1"), messages(diagnostics));
+        assertFalse(diagnostics.full());
+
+        // the statements without errors are all there
+        String ast = new Parser(new Lexer("")).printAST(t, new StringBuilder());
+        assertTrue(ast.contains("Assign\nIdentifier x\nInteger 1\n"), ast);
+        assertTrue(ast.contains("Prtc\nIdentifier z\n"), ast);
+        assertTrue(ast.contains("Prtc\nInteger 1\n"), ast);
+
+        // without Diagnostics the first error is thrown, as always
+        CompileException e = assertThrows(CompileException.class, () -> new Parser(new Lexer(SOURCE)).parse());
+        assertEquals(diagnostics.errors().get(0).getMessage(), e.getMessage());
+    }
+
+    @Test
+    public void testStopsAtMax() {
+        Diagnostics diagnostics = new Diagnostics(3);
+        assertNull(new Parser(new Lexer(SOURCE)).parse(diagnostics));
+        assertEquals(3, diagnostics.errors().size());
+        assertTrue(diagnostics.full());
+        assertTrue(diagnostics.toString().endsWith("in line 5, pos 10\nStopped after 3 errors\n"), diagnostics.toString());
+
+        // tokens from a TokenBuffer go through the same recovery, and a clean source reports nothing
+        TokenBuffer tokens = new TokenBuffer();
+        new Lexer("a = ;\nb = 2;\n}\nc = 3;").tokenize(tokens);
+        diagnostics = new Diagnostics(10);
+        new Parser(tokens).parse(diagnostics);
+        assertEquals(Arrays.asList("Expecting a primary, found: Semicolon in line 1, pos 4",
+                "Syntax error in statement, found: RightBrace in line 3, pos 1"), messages(diagnostics));
+        diagnostics = new Diagnostics(10);
+        assertNotNull(new Parser(new Lexer("x = 1;")).parse(diagnostics));
+        assertFalse(diagnostics.hasErrors());
+    }
+
+    @Test
+    public void testLexerSkipsBadTokens() {
+        Diagnostics diagnostics = new Diagnostics(10);
+        Lexer lexer = new Lexer("a $ b 'a\\q' c 12x d").collect(diagnostics);
+        StringBuilder values = new StringBuilder();
+        Lexer.Token t;
+        while ((t = lexer.getToken()).tokentype != Lexer.TokenType.End_of_input) {
+            values.append(t.value).append(' ');
+        }
+        assertEquals("a b c d ", values.toString());
+        assertEquals(Arrays.asList("Unrecognized Variable Name in line 1, pos 2",
+                "unknown escape sequence \\q in line 1, pos 6",
+                "Invalid Variable Name 12x in line 1, pos 14"), messages(diagnostics));
+    }
+
+    @Test
+    public void testBatchReportsUpToMaxErrors() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        BatchCompiler compiler = new BatchCompiler(1, false, null, 5);
+        try {
+            Path source = dir.resolve("bad.c");
+            Files.writeString(source, "x = ;\ny = 1;\nz = ;\n");
+            BatchCompiler.Result result = compiler.compile(source);
+            assertEquals("Expecting a primary, found: Semicolon in line 1, pos 5\n"
+                    + "Expecting a primary, found: Semicolon in line 3, pos 5", result.error);
+
+            // the first error stands alone when looking for more fails
+            Files.writeString(source, "x = ;\ny = " + "(".repeat(100000) + "1" + ")".repeat(100000) + ";\n");
+            result = compiler.compile(source);
+            assertEquals("Expecting a primary, found: Semicolon in line 1, pos 5", result.error);
+        } finally {
+            compiler.shutdown();
+            Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+public class IncrementalLexerTest {
+
+    private static final String SOURCE = "/* count\n   to ten */\ncount = 1;\nwhile (count < 10) {\n"
+            + "   print(\"count is: \", count, \"\\n\"); // say it\n   count = count + 1 - -2;\n}\n";
+
+    private static void assertSameAsFullLex(IncrementalLexer incremental) {
+        List<Lexer.Token> tokens = incremental.tokens();
+        Lexer lexer = new Lexer(incremental.source());
+        for (int i = 0; ; i++) {
+            Lexer.Token expected = lexer.getToken();
+            Lexer.Token actual = tokens.get(i);
+            String where = "token " + i + " of " + incremental.source();
+            assertEquals(expected.tokentype, actual.tokentype, where);
+            assertEquals(expected.value, actual.value, where);
+            assertEquals(expected.line, actual.line, where);
+            assertEquals(expected.pos, actual.pos, where);
+            assertEquals(expected.offset, actual.offset, where);
+            assertEquals(expected.length, actual.length, where);
+            if (expected.tokentype == Lexer.TokenType.End_of_input) {
+                assertEquals(i + 1, tokens.size(), where);
+                return;
+            }
+        }
+    }
+
+    @Test
+    public void testEditInsideLine() {
+        IncrementalLexer incremental = new IncrementalLexer(SOURCE);
+        int offset = SOURCE.indexOf("count + 1");
+        incremental.edit(offset, 5, "total");
+        assertSameAsFullLex(incremental);
+        assertTrue(incremental.relexed() < 6, "relexed " + incremental.relexed());
+    }
+
+    @Test
+    public void testCommentAndStringEdits() {
+        IncrementalLexer incremental = new IncrementalLexer(SOURCE);
+        // a stray */ lexes as * and /, until a comment opened before it swallows the while header
+        incremental.edit(SOURCE.indexOf("{\n"), 0, "*/ x = 2; ");
+        assertSameAsFullLex(incremental);
+        incremental.edit(incremental.source().indexOf("while"), 0, "/* ");
+        assertSameAsFullLex(incremental);
+        // turn code into a string literal spanning lines, and back
+        int start = incremental.source().indexOf("count = 1");
+        incremental.edit(start, "count = 1;\n".length(), "print(\"count = 1;\n\");\n");
+        assertSameAsFullLex(incremental);
+        incremental.edit(start, "print(\"count = 1;\n\");\n".length(), "count = 1;\n");
+        assertSameAsFullLex(incremental);
+        // remove the first comment's end so it runs into the next one
+        incremental.edit(incremental.source().indexOf("ten */") + 4, 2, "");
+        assertSameAsFullLex(incremental);
+    }
+
+    @Test
+    public void testTypingDoesNotGrowTheSymbolTable() {
+        IncrementalLexer incremental = new IncrementalLexer(SOURCE);
+        int offset = SOURCE.indexOf("count = 1");
+        for (int i = 0; i < 10000; i++) {
+            String name = "n" + i; // each keystroke leaves a name no token uses once the next one is typed
+            incremental.edit(offset, i == 0 ? 0 : ("n" + (i - 1)).length(), name);
+        }
+        assertSameAsFullLex(incremental);
+        SymbolTable symbols = incremental.symbols();
+        assertTrue(symbols.size() < 100, "symbols " + symbols.size());
+        for (Lexer.Token t : incremental.tokens()) {
+            if (t.symbol >= 0) {
+                assertSame(symbols.name(t.symbol), t.value);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomEdits() {
+        String[] snippets = {"a", "b1", "7", " ", "\n", "-", "- ", "+", "*", ";", "(", ")", "{", "}", "=", "==", "<",
+                "/* c */", "/* x\n y */", "\"s\"", "\"\\n\"", "// note\n", "while", "if", "/", "!"};
+        Random random = new Random(17);
+        IncrementalLexer incremental = new IncrementalLexer(SOURCE);
+        int edits = 0;
+        while (edits < 500) {
+            String source = incremental.source();
+            int offset = random.nextInt(source.length() + 1);
+            int removed = random.nextInt(4) == 0 ? Math.min(random.nextInt(6), source.length() - offset) : 0;
+            String inserted = removed > 0 && random.nextBoolean() ? "" : snippets[random.nextInt(snippets.length)];
+            String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+            if (!lexesCleanly(edited)) {
+                continue; // the lexer rejects sources like one with an unclosed comment
+            }
+            incremental.edit(offset, removed, inserted);
+            assertSameAsFullLex(incremental);
+            edits++;
+        }
+    }
+
+    /**
+     * @return false for sources with an unclosed comment or string, a char no token starts with,
+     * or a number running into letters
+     */
+    private static boolean lexesCleanly(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '/' && i + 1 < s.length() && s.charAt(i + 1) == '*') {
+                i = s.indexOf("*/", i + 2);
+                if (i < 0) {
+                    return false;
+                }
+                i++;
+            } else if (c == '/' && i + 1 < s.length() && s.charAt(i + 1) == '/') {
+                i = s.indexOf('\n', i);
+                if (i < 0) {
+                    return true;
+                }
+            } else if (c == '"') {
+                i = s.indexOf('"', i + 1);
+                if (i < 0) {
+                    return false;
+                }
+            } else if (!Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && "_(){};,*%+<>!=&|/-".indexOf(c) < 0) {
+                return false; // e.g. a ':' or '\\' left over from a string that was cut apart
+            } else if (Character.isDigit(c) && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1)) && s.charAt(i - 1) != '_')) {
+                int j = i;
+                while (j < s.length() && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j) == '_')) {
+                    if (!Character.isDigit(s.charAt(j))) {
+                        return false;
+                    }
+                    j++;
+                }
+            }
+        }
+        return true;
+    }
+}
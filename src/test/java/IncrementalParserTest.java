@@ -0,0 +1,140 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class IncrementalParserTest {
+
+    private static String print(Parser.Node t) throws IOException {
+        StringWriter out = new StringWriter();
+        new Parser(new Lexer("")).printAST(t, out, false);
+        return out.toString();
+    }
+
+    private static void assertSameAsFullParse(IncrementalParser incremental) throws IOException {
+        String source = incremental.lexer().source();
+        assertEquals(print(new Parser(new Lexer(source)).parse()), print(incremental.root()), source);
+    }
+
+    @Test
+    public void testReusesUntouchedStatements() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            source.append("x").append(i).append(" = ").append(i).append(";\n");
+        }
+        IncrementalParser incremental = new IncrementalParser(source.toString());
+        Parser.Node before = incremental.root();
+        Parser.Node ninth = before;
+        for (int i = 0; i < 40; i++) {
+            ninth = ninth.left;
+        }
+        Parser.Node last = before.right;
+
+        incremental.edit(source.indexOf("x20 = 20") + 6, 2, "1 + 2");
+        assertSameAsFullParse(incremental);
+        assertEquals(1, incremental.reparsed());
+        assertSame(before, incremental.root());
+        assertSame(last, incremental.root().right);
+        assertSame(ninth.right, findStatement(incremental.root(), 9).right);
+
+        // a whole block changes, the statements around it stay
+        incremental.edit(incremental.lexer().source().indexOf("x30"), 0, "while (x1 < 5) {\n x1 = x1 + 1;\n}\n");
+        assertSameAsFullParse(incremental);
+        assertTrue(incremental.reparsed() <= 2, "reparsed " + incremental.reparsed());
+        assertSame(last, incremental.root().right);
+    }
+
+    @Test
+    public void testElseAndStatementMerges() throws IOException {
+        String source = "if (a) b = 1;\nc = 2;\nd = 3;\n";
+        IncrementalParser incremental = new IncrementalParser(source);
+        // typing an else after the if folds the next statement into it
+        incremental.edit(source.indexOf("c = 2"), 0, "else ");
+        assertSameAsFullParse(incremental);
+        incremental.edit(incremental.lexer().source().indexOf("else "), 5, "");
+        assertSameAsFullParse(incremental);
+        // commenting out a statement, and back
+        incremental.edit(source.indexOf("c = 2"), 6, "/* c = 2; */");
+        assertSameAsFullParse(incremental);
+        incremental.edit(source.indexOf("c = 2"), 12, "c = 2;");
+        assertSameAsFullParse(incremental);
+        incremental.edit(0, incremental.lexer().source().length(), "");
+        assertNull(incremental.root());
+        incremental.edit(0, 0, "print(1);");
+        assertSameAsFullParse(incremental);
+    }
+
+    @Test
+    public void testRandomEdits() throws IOException {
+        String[] statements = {"x = 1;\n", "y = x * (2 + x);\n", ";\n", "print(\"x \", x, \"\\n\");\n",
+                "if (x < 3) y = 4;\n", "if (y) x = 5; else { y = 6; }\n", "while (x > 7) {\n  x = x - 8;\n}\n",
+                "{ }\n", "putc(9);\n", "if (x) if (y) x = 0; else y = 0;\n"};
+        Random random = new Random(18);
+        List<String> program = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            program.add(statements[random.nextInt(statements.length)]);
+        }
+        IncrementalParser incremental = new IncrementalParser(String.join("", program));
+        for (int edit = 0; edit < 500; edit++) {
+            int k = random.nextInt(program.size() + 1);
+            int offset = 0;
+            for (int i = 0; i < k; i++) {
+                offset += program.get(i).length();
+            }
+            String statement = statements[random.nextInt(statements.length)];
+            switch (random.nextInt(4)) {
+                case 0: // insert a statement
+                    program.add(k, statement);
+                    incremental.edit(offset, 0, statement);
+                    break;
+                case 1: // delete one
+                    if (k < program.size()) {
+                        incremental.edit(offset, program.remove(k).length(), "");
+                    }
+                    break;
+                case 2: // replace one
+                    if (k < program.size()) {
+                        incremental.edit(offset, program.set(k, statement).length(), statement);
+                    }
+                    break;
+                default: // change a digit inside one
+                    if (k < program.size()) {
+                        String old = program.get(k);
+                        int at = indexOfDigit(old);
+                        if (at >= 0) {
+                            String digit = Integer.toString(random.nextInt(100));
+                            program.set(k, old.substring(0, at) + digit + old.substring(at + 1));
+                            incremental.edit(offset + at, 1, digit);
+                        }
+                    }
+                    break;
+            }
+            assertEquals(String.join("", program), incremental.lexer().source());
+            assertSameAsFullParse(incremental);
+        }
+    }
+
+    private static int indexOfDigit(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isDigit(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the nd_Sequence node holding top-level statement k
+     */
+    private static Parser.Node findStatement(Parser.Node root, int k) {
+        List<Parser.Node> spine = new ArrayList<>();
+        for (Parser.Node s = root; s != null; s = s.left) {
+            spine.add(0, s);
+        }
+        return spine.get(k);
+    }
+}
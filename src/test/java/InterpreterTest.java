@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class InterpreterTest {
+
+    private static String run(String source) throws IOException {
+        StringWriter out = new StringWriter();
+        new Interpreter(new Parser(new Lexer(source)).parse()).run(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testCount() throws IOException {
+        assertEquals("count is: 1\ncount is: 2\ncount is: 3\n",
+                run("count = 1;\nwhile (count < 4) {\n  print(\"count is: \", count, \"\\n\");\n  count = count + 1;\n}"));
+    }
+
+    @Test
+    public void testOperators() throws IOException {
+        Interpreter interpreter = new Interpreter(new Parser(new Lexer(
+                "a = 7 / 2 * 2 + 7 % 3; b = -a; c = !0 + (a >= 7) + (a != 7) + (1 && 0) + (0 || 2);\n"
+                        + "if (a == 7) d = 1; else d = 2;\nputc(65 + d);")).parse());
+        StringWriter out = new StringWriter();
+        interpreter.run(out);
+        assertEquals(7, interpreter.get("a"));
+        assertEquals(-7, interpreter.get("b"));
+        assertEquals(3, interpreter.get("c"));
+        assertEquals(1, interpreter.get("d"));
+        assertEquals(0, interpreter.get("never"));
+        assertEquals("B", out.toString());
+    }
+
+    @Test
+    public void testLongProgram() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            source.append("x = x + 1;\n");
+        }
+        source.append("print(x, \"\\\\\");");
+        assertEquals("100000\\", run(source.toString()));
+    }
+
+    @Test
+    public void testLongExpressions() throws IOException {
+        // far deeper than nested closures could go, and on the variables the rest of the program uses
+        String ones = " + 1".repeat(99999), zeros = "0 || ".repeat(99999);
+        assertEquals("100002 1 0 7", run("y = 3; x = y" + ones + ";\nz = " + zeros + "1;\nw = 0 && 1 / 0" + ones + ";\n"
+                + "i = 0; while (i < 7) i = i + 1 * 1 * 1" + " * 1".repeat(99990) + ";\nprint(x, \" \", z, \" \", w, \" \", i);"));
+        assertThrows(ArithmeticException.class, () -> run("x = 1 / 0" + " + 1".repeat(99999) + ";"));
+    }
+
+    @Test
+    public void testDivisionByZero() {
+        assertThrows(ArithmeticException.class, () -> run("x = 0; y = 1 / x;"));
+    }
+
+    @Test
+    public void testLiteralOutOfRange() throws IOException {
+        CompileException e = assertThrows(CompileException.class, () -> run("x = 1;\ny = x + 99999999999;"));
+        assertEquals("Integer literal out of range: 99999999999 in line 2, pos 9", e.getMessage());
+        assertEquals("2147483647 -2147483647", run("print(2147483647, \" \", -2147483647);"));
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class JvmCompilerTest {
+
+    @Test
+    public void testSameOutputAsInterpreter() throws IOException {
+        String source = "count = 1;\nwhile (count < 4) {\n  print(\"count is: \", count, \"\\n\");\n  count = count + 1;\n}\n"
+                + "n = 0; i = 20;\nwhile (i >= -3) {\n  if (i % 3 == 0 || !(i - 7) && 1) n = n + i * 2 / 3; else if (i <= 2) putc(64 - i);\n"
+                + "  i = i - 1;\n}\nb = (n > 5) + !(n < 5 || n != n) + (1 && n) * 100000 - 70000 * 70000;\nprint(n, \" \", -n != 0, \" \", b, \"\\n\");";
+        Parser.Node t = new Parser(new Lexer(source)).parse();
+        StringWriter expected = new StringWriter();
+        Interpreter interpreter = new Interpreter(t);
+        interpreter.run(expected);
+        StringWriter actual = new StringWriter();
+        JvmCompiler.Program program = JvmCompiler.compile(t);
+        program.run(actual);
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(-4, program.get("i"));
+        assertEquals(interpreter.get("b"), program.get("b"));
+    }
+
+    @Test
+    public void testManyVariables() throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            source.append("v").append(i).append(" = ").append(i).append(";\n");
+        }
+        source.append("print(v299 + v0 + v255);");
+        StringWriter out = new StringWriter();
+        JvmCompiler.compile(new Parser(new Lexer(source.toString())).parse()).run(out);
+        assertEquals("554", out.toString());
+    }
+
+    @Test
+    public void testErrors() {
+        assertThrows(ArithmeticException.class,
+                () -> JvmCompiler.compile(new Parser(new Lexer("x = 0; y = 1 / x;")).parse()).run(new StringWriter()));
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            source.append("x = x + 1;\n");
+        }
+        assertThrows(JvmCompiler.TooLargeException.class,
+                () -> JvmCompiler.compile(new Parser(new Lexer(source.toString())).parse()));
+    }
+
+    @Test
+    public void testMainRunsTooLargeProgramsOnceOnTheVM() throws Exception {
+        Path dir = Files.createTempDirectory("jvm");
+        try {
+            Path source = dir.resolve("large.c");
+            Files.writeString(source, "print(\"start\\n\");\n" + "x = x + 1;\n".repeat(20000) + "print(x);\n");
+            Path out = dir.resolve("out.txt");
+            Process p = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), "JvmCompiler", source.toString())
+                    .redirectErrorStream(true).redirectOutput(out.toFile()).start();
+            assertEquals(0, p.waitFor(), Files.readString(out));
+            assertEquals("start\n20000", Files.readString(out));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
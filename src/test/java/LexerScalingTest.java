@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+import java.io.StringReader;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Regression benchmark for long lexemes: lexing time has to grow linearly with identifier
+ * and string literal length. Quadratic text building made 16x longer lexemes take ~256x longer.
+ */
+public class LexerScalingTest {
+    private static final int SHORT = 10_000;
+    private static final int LONG = SHORT * 16;
+
+    private static String source(int length) {
+        String statement = "a".repeat(length) + " = \"" + "b".repeat(length) + "\";\n";
+        return statement.repeat(10);
+    }
+
+    /**
+     * @return best of several runs, in nanoseconds, after a warm-up run
+     */
+    private static long time(String source, boolean streaming) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 6; run++) {
+            long start = System.nanoTime();
+            Lexer lexer = streaming ? new Lexer(new StringReader(source)) : new Lexer(source);
+            Lexer.Token t;
+            while ((t = lexer.getToken()).tokentype != Lexer.TokenType.End_of_input) {
+                if (t.tokentype == Lexer.TokenType.Identifier) {
+                    assertEquals(source.indexOf(' '), t.value.length());
+                }
+            }
+            if (run > 0) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    private static void assertLinear(boolean streaming) {
+        long shortTime = time(source(SHORT), streaming);
+        long longTime = time(source(LONG), streaming);
+        double ratio = (double) longTime / shortTime;
+        System.out.printf("lexemes of %d chars: %d us, %d chars: %d us (x%.1f)%n",
+                SHORT, shortTime / 1000, LONG, longTime / 1000, ratio);
+        assertTrue(ratio < 64, "lexing time grew x" + ratio + " for 16x longer lexemes");
+    }
+
+    @Test
+    public void testLongLexemesScaleLinearly() {
+        assertLinear(false);
+    }
+
+    @Test
+    public void testLongLexemesScaleLinearlyWhenStreaming() {
+        assertLinear(true);
+    }
+}
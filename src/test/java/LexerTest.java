@@ -28,6 +28,145 @@ public class LexerTest {
         assertEquals("", token.value);
     }
 
+    @Test
+    public void testReaderSource() {
+        Lexer lexer = new Lexer(new java.io.StringReader("count = 1;\nprint(count);"));
+        Lexer.Token token = lexer.getToken();
+        assertEquals(Lexer.TokenType.Identifier, token.tokentype);
+        assertEquals("count", token.value);
+        assertEquals(1, token.line);
+        assertEquals(1, token.pos);
+        while (token.tokentype != Lexer.TokenType.Keyword_print) {
+            token = lexer.getToken();
+        }
+        assertEquals(2, token.line);
+        assertEquals(1, token.pos);
+    }
+
+    @Test
+    public void testMappedSourceSlices() {
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap("x = \"hi\";".getBytes());
+        Lexer lexer = new Lexer(bytes);
+        Lexer.Token token = lexer.getToken();
+        assertEquals(Lexer.TokenType.Identifier, token.tokentype);
+        assertNull(token.value);
+        assertEquals("x", lexer.value(token).toString());
+        assertEquals(Lexer.TokenType.Op_assign, lexer.getToken().tokentype);
+        token = lexer.getToken();
+        assertEquals(Lexer.TokenType.String, token.tokentype);
+        assertEquals("hi", lexer.value(token).toString());
+        assertEquals(4, token.offset);
+        assertEquals(4, token.length);
+    }
+
+    @Test
+    public void testMappedNonAsciiText() {
+        // strings and comments agree with Lexer(Reader), positions included; the 4-byte char is two UTF-16 chars
+        String source = "/* caf\u00e9 */ s = \"na\u00efve \uD83D\uDE00\"; t = \"na\u00efve \uD83D\uDE00\";\nx = 1;";
+        Lexer mapped = new Lexer(java.nio.ByteBuffer.wrap(source.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        Lexer reader = new Lexer(new java.io.StringReader(source));
+        Lexer.Token expected, token;
+        java.util.Set<Integer> strings = new java.util.HashSet<>();
+        do {
+            expected = reader.getToken();
+            token = mapped.getToken();
+            assertEquals(expected.tokentype, token.tokentype);
+            assertEquals(expected.line, token.line);
+            assertEquals(expected.pos, token.pos, expected.tokentype.toString());
+            assertEquals(expected.value, mapped.value(token).toString());
+            if (token.tokentype == Lexer.TokenType.String) {
+                strings.add(token.symbol);
+            }
+        } while (expected.tokentype != Lexer.TokenType.End_of_input);
+        int s = mapped.symbols().intern("na\u00efve \uD83D\uDE00");
+        assertEquals("na\u00efve \uD83D\uDE00", mapped.symbols().name(s));
+        assertEquals(s, mapped.symbols().intern("na\u00efve \uD83D\uDE00".toCharArray(), 0, 8));
+        assertEquals(java.util.Collections.singleton(s), strings); // both strings, however interned, are one name
 
+        // anywhere else non-ASCII is an error rather than misread
+        for (String bad : new String[] {"caf\u00e9 = 1;", "x = '\u00e9';"}) {
+            Lexer lexer = new Lexer(java.nio.ByteBuffer.wrap(bad.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            CompileException e = assertThrows(CompileException.class, () -> {
+                while (lexer.getToken().tokentype != Lexer.TokenType.End_of_input) {
+                    // lex on
+                }
+            });
+            assertTrue(e.getMessage().contains("in mapped input"), e.getMessage());
+        }
+    }
 
+    @Test
+    public void testIdentifiersAreInterned() {
+        Lexer lexer = new Lexer("count = count + 1; while (x) print(\"count\");");
+        Lexer.Token first = lexer.getToken();
+        lexer.getToken();
+        Lexer.Token second = lexer.getToken();
+        assertEquals(first.symbol, second.symbol);
+        assertSame(first.value, second.value);
+        Lexer.Token t;
+        while ((t = lexer.getToken()).tokentype != Lexer.TokenType.String) {
+            if (t.tokentype == Lexer.TokenType.Keyword_while) {
+                assertEquals(-1, t.symbol);
+            }
+        }
+        assertEquals(first.symbol, t.symbol);
+        assertEquals("count", lexer.symbols().name(t.symbol));
+    }
+
+    @Test
+    public void testOperators() {
+        Lexer lexer = new Lexer("a<=b>=c==d!=e&&f||g<h>i=!j");
+        Lexer.TokenType[] expected = {
+                Lexer.TokenType.Identifier, Lexer.TokenType.Op_lessequal, Lexer.TokenType.Identifier,
+                Lexer.TokenType.Op_greaterequal, Lexer.TokenType.Identifier, Lexer.TokenType.Op_equal,
+                Lexer.TokenType.Identifier, Lexer.TokenType.Op_notequal, Lexer.TokenType.Identifier,
+                Lexer.TokenType.Op_and, Lexer.TokenType.Identifier, Lexer.TokenType.Op_or,
+                Lexer.TokenType.Identifier, Lexer.TokenType.Op_less, Lexer.TokenType.Identifier,
+                Lexer.TokenType.Op_greater, Lexer.TokenType.Identifier, Lexer.TokenType.Op_assign,
+                Lexer.TokenType.Op_not, Lexer.TokenType.Identifier, Lexer.TokenType.End_of_input
+        };
+        for (Lexer.TokenType type : expected) {
+            assertEquals(type, lexer.getToken().tokentype);
+        }
+    }
+
+    private static String tokens(Lexer lexer) {
+        StringBuilder sb = new StringBuilder();
+        Lexer.Token t;
+        do {
+            t = lexer.getToken();
+            sb.append(t.tokentype).append(' ').append(t.line).append(' ').append(t.pos)
+                    .append(' ').append(lexer.value(t)).append(' ').append(t.symbol).append('\n');
+        } while (t.tokentype != Lexer.TokenType.End_of_input);
+        return sb.toString();
+    }
+
+    @Test
+    public void testReset() {
+        String first = "longer = name + 1; /* a comment */ x = \"s\";\n";
+        String second = "-1; y = x;";
+        Lexer lexer = new Lexer(first);
+        assertEquals(tokens(new Lexer(first)), tokens(lexer));
+        // the '-' after a reset negates, whatever the last source ended with
+        assertEquals(tokens(new Lexer(second)), tokens(lexer.reset(second)));
+        assertEquals(tokens(new Lexer(first)), tokens(lexer.reset(first)));
+        assertEquals(tokens(new Lexer(java.nio.ByteBuffer.wrap(second.getBytes()))),
+                tokens(lexer.reset(java.nio.ByteBuffer.wrap(second.getBytes()))));
+        assertEquals(tokens(new Lexer(new java.io.StringReader(first))), tokens(lexer.reset(new java.io.StringReader(first))));
+        assertEquals(tokens(new Lexer("")), tokens(lexer.reset("")));
+    }
+
+    @Test
+    public void testResetLeavesOldTokensTheirNames() {
+        Lexer lexer = new Lexer("count = 1;");
+        TokenBuffer before = new TokenBuffer();
+        lexer.tokenize(before);
+        TokenBuffer after = new TokenBuffer();
+        lexer.reset("zzz = 2; yyy = 3;").tokenize(after);
+        assertEquals("count", before.value(0));
+        assertEquals("zzz", after.value(0));
+        Parser.Node assign = new Parser(before).parse().right;
+        assertEquals("count", assign.left.value);
+        assertEquals("1", assign.right.value);
+    }
 }
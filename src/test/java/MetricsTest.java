@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class MetricsTest {
+
+    @Test
+    public void testJsonSummary() throws IOException {
+        Metrics.reset();
+        Metrics.bytesRead(12);
+        Metrics.token(Lexer.TokenType.Identifier);
+        Metrics.token(Lexer.TokenType.Identifier);
+        Metrics.node(Parser.NodeType.nd_Assign);
+        Metrics.tokenList(7);
+        Metrics.tokenList(3);
+        Metrics.end(Metrics.Phase.PARSE, Metrics.start());
+        StringWriter out = new StringWriter();
+        Metrics.writeJson(out);
+        String json = out.toString();
+        assertTrue(json.startsWith("{\n  \"bytesRead\": 12,\n  \"peakTokenListSize\": 7,\n"), json);
+        assertTrue(json.contains("\"tokens\": {\n    \"Identifier\": 2\n  }"), json);
+        assertTrue(json.contains("\"nodes\": {\n    \"nd_Assign\": 1\n  }"), json);
+        assertTrue(json.contains("\"parse\": {\"calls\": 1, \"ms\": "), json);
+        assertTrue(json.contains("\"getToken\": {\"calls\": 0, \"ms\": 0.000}"), json);
+        Metrics.reset();
+    }
+
+    @Test
+    public void testParserWritesSummaryAtExit() throws Exception {
+        // metrics are fixed when the JVM starts, so this runs Parser.main in one of its own
+        Path dir = Files.createTempDirectory("metrics");
+        try {
+            Path source = dir.resolve("loop.c");
+            Files.writeString(source, "/* count */ i = 1;\nwhile (i < 3) i = i + 1;\n");
+            Path json = dir.resolve("metrics.json");
+            Process p = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Dcompiler.metrics=" + json, "-cp", System.getProperty("java.class.path"), "Parser", source.toString())
+                    .redirectErrorStream(true).redirectOutput(dir.resolve("out.txt").toFile()).start();
+            assertEquals(0, p.waitFor(), Files.readString(dir.resolve("out.txt")));
+            assertTrue(Files.exists(dir.resolve("loop.par")));
+            String summary = Files.readString(json);
+            assertTrue(summary.contains("\"bytesRead\": " + Files.size(source) + ","), summary);
+            assertTrue(summary.contains("\"Keyword_while\": 1,"), summary);
+            assertTrue(summary.contains("\"Identifier\": 4,"), summary);
+            assertTrue(summary.contains("\"nd_While\": 1"), summary);
+            assertTrue(summary.contains("\"getToken\": {\"calls\": 17,"), summary);
+            assertTrue(summary.contains("\"parse\": {\"calls\": 1,"), summary);
+            assertTrue(summary.contains("\"printAST\": {\"calls\": 1,"), summary);
+            assertTrue(summary.contains("\"output\": {\"calls\": 1,"), summary);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTest {
+
+    private static Parser.Node optimize(String source) {
+        return Optimizer.optimize(new Parser(new Lexer(source)).parse());
+    }
+
+    @Test
+    public void testFoldConstants() {
+        Parser.Node t = optimize("x = (2 + 3) * 4 - -6 / 2 % 5 + !0 + (1 < 2) + (3 == 4 || 1 && 2);");
+        Parser.Node assign = t.right;
+        assertEquals(Parser.NodeType.nd_Assign, assign.nt);
+        assertEquals(Parser.NodeType.nd_Integer, assign.right.nt);
+        assertEquals(String.valueOf((2 + 3) * 4 - -6 / 2 % 5 + 1 + 1 + 1), assign.right.value);
+    }
+
+    @Test
+    public void testIdentities() {
+        Parser.Node t = optimize("y = 1 * (x + 0) / 1 - 0 + 0 * 0;");
+        assertEquals(Parser.NodeType.nd_Ident, t.right.right.nt);
+        assertEquals("x", t.right.right.value);
+        t = optimize("y = --x;");
+        assertEquals(Parser.NodeType.nd_Ident, t.right.right.nt);
+    }
+
+    @Test
+    public void testDivisionByZeroIsKept() {
+        Parser.Node t = optimize("x = 1 / (2 - 2);");
+        assertEquals(Parser.NodeType.nd_Div, t.right.right.nt);
+        assertEquals("0", t.right.right.right.value);
+    }
+
+    @Test
+    public void testDeadBranches() {
+        Parser.Node t = optimize("if (1 > 2) print(\"a\"); else x = 1;\nwhile (0) x = 2;\nif (x) y = 1;");
+        // the while goes away, the first if becomes its else branch
+        assertEquals(Parser.NodeType.nd_Sequence, t.nt);
+        assertEquals(Parser.NodeType.nd_If, t.right.nt);
+        assertEquals(Parser.NodeType.nd_Assign, t.left.right.nt);
+        assertNull(t.left.left);
+        assertNull(optimize("if (0) { x = 1; }\nwhile (1 - 1) ;"));
+    }
+}
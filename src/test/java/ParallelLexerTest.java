@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelLexerTest {
+
+    private static final String SOURCE = "/* multi\n   line\n comment */\ncount = 1;\n"
+            + "print(\"a string\nover two lines\", count, '\\n');\n"
+            + "x = count\n- 2; y = (x)\n-3;\n"   // '-' after a newline still subtracts after a digit or letter
+            + "c = '\"+'; d = '/*'; e = 'a\\n'; // a comment with \"quotes and /* in it\n"
+            + "while (count < 10) {\n   count = count + 1; /* ** / */\n}\n"
+            + "z = -count\n;\n-1;\n";
+
+    private static TokenBuffer sequential(String source) {
+        TokenBuffer tokens = new TokenBuffer();
+        new Lexer(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8))).tokenize(tokens);
+        return tokens;
+    }
+
+    private static void assertSameTokens(TokenBuffer expected, TokenBuffer actual, String where) {
+        assertEquals(expected.size(), actual.size(), where);
+        for (int i = 0; i < expected.size(); i++) {
+            String token = where + " token " + i;
+            assertEquals(expected.type(i), actual.type(i), token);
+            assertEquals(expected.line(i), actual.line(i), token);
+            assertEquals(expected.pos(i), actual.pos(i), token);
+            assertEquals(expected.value(i), actual.value(i), token);
+        }
+    }
+
+    @Test
+    public void testSameAsSequentialForEveryChunkSize() {
+        TokenBuffer expected = sequential(SOURCE);
+        ByteBuffer bytes = ByteBuffer.wrap(SOURCE.getBytes(StandardCharsets.UTF_8));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int chunkSize = 1; chunkSize <= SOURCE.length() + 1; chunkSize++) {
+                assertSameTokens(expected, ParallelLexer.lex(bytes, chunkSize, pool), "chunk size " + chunkSize);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSplitsOnlyOutsideCommentsAndStrings() {
+        ByteBuffer bytes = ByteBuffer.wrap(SOURCE.getBytes(StandardCharsets.UTF_8));
+        int[] splits = ParallelLexer.splitPoints(bytes, 1);
+        assertEquals(0, splits[0]);
+        assertEquals(SOURCE.length(), splits[splits.length - 1]);
+        assertEquals(SOURCE.indexOf("count = 1"), splits[1]); // not inside the comment
+        for (int k = 1; k + 1 < splits.length; k++) {
+            assertEquals('\n', SOURCE.charAt(splits[k] - 1));
+            assertNotEquals(SOURCE.indexOf("over two lines"), splits[k]);
+        }
+    }
+
+    @Test
+    public void testErrorInLaterChunkHasItsLineInTheFile() {
+        String source = "a = 1;\nb = 2;\n/* two\nlines */\nc = 3;\nd = 4 @ 5;\ne = 6;\nf = 7 $ 8;\n";
+        CompileException expected = assertThrows(CompileException.class, () -> sequential(source));
+        assertEquals("Unrecognized Variable Name in line 6, pos 7", expected.getMessage());
+        ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int chunkSize = 1; chunkSize <= source.length() + 1; chunkSize++) {
+                int size = chunkSize;
+                CompileException e = assertThrows(CompileException.class, () -> ParallelLexer.lex(bytes, size, pool));
+                assertEquals(expected.getMessage(), e.getMessage(), "chunk size " + chunkSize);
+                assertEquals(6, e.line);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSymbolsShareOneTable() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("v").append(i % 37).append(" = v").append(i % 11).append(" * ").append(i).append(";\n");
+        }
+        TokenBuffer expected = sequential(source.toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TokenBuffer tokens = ParallelLexer.lex(ByteBuffer.wrap(source.toString().getBytes(StandardCharsets.UTF_8)), 1000, pool);
+            assertSameTokens(expected, tokens, "chunk size 1000");
+            Map<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.symbol(i) >= 0) {
+                    Integer id = ids.putIfAbsent(tokens.value(i), tokens.symbol(i));
+                    assertEquals(id == null ? tokens.symbol(i) : id, tokens.symbol(i), tokens.value(i));
+                }
+            }
+            assertEquals(37, ids.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParserTest {
+
+    @Test
+    public void testParseFromTokenBuffer() {
+        TokenBuffer tokens = new TokenBuffer(4);
+        new Lexer("count = 1; while (count < 10) { count = count + 1; }").tokenize(tokens);
+        assertEquals(Lexer.TokenType.End_of_input.ordinal(), tokens.type(tokens.size() - 1));
+
+        Parser.Node t = new Parser(tokens).parse();
+        assertEquals(Parser.NodeType.nd_Sequence, t.nt);
+        Parser.Node loop = t.right;
+        assertEquals(Parser.NodeType.nd_While, loop.nt);
+        assertEquals(Parser.NodeType.nd_Lss, loop.left.nt);
+        assertEquals("count", loop.left.left.value);
+        assertEquals("10", loop.left.right.value);
+        Parser.Node assign = t.left.right;
+        assertEquals(Parser.NodeType.nd_Assign, assign.nt);
+        assertEquals(Parser.NodeType.nd_Integer, assign.right.nt);
+    }
+
+    @Test
+    public void testPrecedence() {
+        TokenBuffer tokens = new TokenBuffer();
+        new Lexer("x = 1 + 2 * 3;").tokenize(tokens);
+        Parser.Node e = new Parser(tokens).parse().right.right;
+        assertEquals(Parser.NodeType.nd_Add, e.nt);
+        assertEquals(Parser.NodeType.nd_Mul, e.right.nt);
+    }
+
+    @Test
+    public void testParseFromLexer() {
+        Parser.Node t = new Parser(new Lexer("print(\"n = \", n, \"\\n\");")).parse();
+        Parser.Node print = t.right;
+        assertEquals(Parser.NodeType.nd_Sequence, print.nt);
+        assertEquals(Parser.NodeType.nd_Prts, print.right.nt);
+        assertEquals("\\n", print.right.left.value);
+        assertEquals(Parser.NodeType.nd_Prti, print.left.right.nt);
+        assertEquals("n", print.left.right.left.value);
+        assertEquals("n = ", print.left.left.right.left.value);
+    }
+
+    @Test
+    public void testBinaryTokenRoundTrip() throws java.io.IOException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        new Lexer("x = 12;\nwhile (x > 0) {\n  print(\"x\", x);\n  x = x - 1;\n}").writeTokens(bytes);
+        TokenBuffer tokens = TokenBuffer.read(java.nio.ByteBuffer.wrap(bytes.toByteArray()));
+
+        TokenBuffer expected = new TokenBuffer();
+        new Lexer("x = 12;\nwhile (x > 0) {\n  print(\"x\", x);\n  x = x - 1;\n}").tokenize(expected);
+        assertEquals(expected.size(), tokens.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.type(i), tokens.type(i));
+            assertEquals(expected.line(i), tokens.line(i));
+            assertEquals(expected.pos(i), tokens.pos(i));
+        }
+        Parser.Node t = new Parser(tokens).parse();
+        assertEquals("12", t.left.right.right.value);
+        assertEquals(Parser.NodeType.nd_While, t.right.nt);
+    }
+
+    @Test
+    public void testMappedNamesComeFromTheSymbolTable() {
+        Lexer lexer = new Lexer(java.nio.ByteBuffer.wrap("count = count + 12;".getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        Parser.Node assign = new Parser(lexer).parse().right;
+        assertEquals("count", assign.left.value);
+        assertSame(assign.left.value, assign.right.left.value);
+        assertSame(lexer.symbols().name(lexer.symbols().intern("count")), assign.left.value);
+        assertEquals("12", assign.right.right.value);
+    }
+
+    private static byte[] lexb(int type, int ref) throws java.io.IOException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+        out.writeInt(0x4c455842);
+        TokenBuffer.writeVarint(out, 1);
+        TokenBuffer.writeVarint(out, 1); // a pool of one string, "x"
+        TokenBuffer.writeVarint(out, 1);
+        out.write('x');
+        TokenBuffer.writeVarint(out, 1); // one token
+        for (int v : new int[] {type, 1, 1, ref}) {
+            TokenBuffer.writeVarint(out, v);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testCorruptedTokenFile() throws java.io.IOException {
+        int identifier = Lexer.TokenType.Identifier.ordinal();
+        assertEquals("x", TokenBuffer.read(java.nio.ByteBuffer.wrap(lexb(identifier, 1))).value(0));
+        for (byte[] bytes : new byte[][] {lexb(Lexer.TokenType.values().length, 1), lexb(-1, 1), lexb(identifier, 2), lexb(identifier, -1)}) {
+            java.io.IOException e = assertThrows(java.io.IOException.class, () -> TokenBuffer.read(java.nio.ByteBuffer.wrap(bytes)));
+            assertEquals("malformed token 0 in .lexb token file", e.getMessage());
+        }
+        byte[] bytes = lexb(identifier, 1);
+        bytes[bytes.length - 5] = 0x7f; // a token count the file has no room for
+        assertThrows(java.io.IOException.class, () -> TokenBuffer.read(java.nio.ByteBuffer.wrap(bytes)));
+    }
+
+    private static byte[] ast(int length, int type, int left, int ref) throws java.io.IOException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+        out.writeInt(0x41535442);
+        TokenBuffer.writeVarint(out, 1);
+        TokenBuffer.writeVarint(out, 1); // one value, "x"
+        TokenBuffer.writeVarint(out, length);
+        out.write('x');
+        TokenBuffer.writeVarint(out, 1); // one node
+        for (int v : new int[] {type, left, 0, ref}) {
+            TokenBuffer.writeVarint(out, v);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testCorruptedAstFile() throws java.io.IOException {
+        int identifier = Parser.NodeType.nd_Ident.ordinal();
+        assertEquals("x", AstArena.read(java.nio.ByteBuffer.wrap(ast(1, identifier, 0, 1))).value(0));
+        for (byte[] bytes : new byte[][] {ast(1, Parser.NodeType.values().length, 0, 1), ast(1, -1, 0, 1),
+                ast(1, identifier, 1, 1), ast(1, identifier, -1, 1), ast(1, identifier, 0, 2), ast(1, identifier, 0, -1)}) {
+            java.io.IOException e = assertThrows(java.io.IOException.class, () -> AstArena.read(java.nio.ByteBuffer.wrap(bytes)));
+            assertEquals("malformed node 0 in .ast file", e.getMessage());
+        }
+        java.io.IOException e = assertThrows(java.io.IOException.class, () -> AstArena.read(java.nio.ByteBuffer.wrap(ast(-1, identifier, 0, 1))));
+        assertEquals("malformed value 0 in .ast file", e.getMessage());
+        byte[] valueCount = ast(1, identifier, 0, 1);
+        valueCount[5] = 0x7f; // more values than the file has bytes
+        assertThrows(java.io.IOException.class, () -> AstArena.read(java.nio.ByteBuffer.wrap(valueCount)));
+        byte[] count = ast(1, identifier, 0, 1);
+        count[count.length - 5] = 0x7f; // a node count the file has no room for
+        assertThrows(java.io.IOException.class, () -> AstArena.read(java.nio.ByteBuffer.wrap(count)));
+    }
+
+    @Test
+    public void testWalkOrder() {
+        Parser.Node t = new Parser(new Lexer("x = 1 + 2;")).parse();
+        StringBuilder order = new StringBuilder();
+        AstWalker.walk(t, new AstWalker.Visitor() {
+            @Override
+            public boolean enter(Parser.Node node) {
+                order.append(node == null ? "; " : "<" + node.nt + " ");
+                return node != null;
+            }
+
+            @Override
+            public void leave(Parser.Node node) {
+                order.append(node == null ? "" : node.nt + "> ");
+            }
+        });
+        assertEquals("<Sequence ; <Assign <Identifier ; ; Identifier> <Add <Integer ; ; Integer> "
+                + "<Integer ; ; Integer> Add> Assign> Sequence> ", order.toString());
+    }
+
+    @Test
+    public void testPrintDeepAST() throws java.io.IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            source.append("x = x + 1;\n");
+        }
+        Parser p = new Parser(new Lexer(source.toString()));
+        java.io.StringWriter out = new java.io.StringWriter();
+        p.printAST(p.parse(), out, false);
+        assertEquals(100000 * 6 + 1, out.toString().split("\n").length);
+    }
+
+    @Test
+    public void testArenaRoundTrip() throws java.io.IOException {
+        Parser p = new Parser(new Lexer("x = 3;\nwhile (x > 0) {\n  print(\"x\", x, \"\\n\");\n  x = -x + 1;\n}\nif (x) ; else print(x);"));
+        Parser.Node t = p.parse();
+        AstArena arena = new AstArena(2);
+        int root = arena.add(t);
+        assertEquals(arena.size() - 1, root);
+        assertEquals(Parser.NodeType.nd_Sequence, arena.type(root));
+
+        java.io.StringWriter expected = new java.io.StringWriter();
+        p.printAST(t, expected, false);
+        java.io.StringWriter actual = new java.io.StringWriter();
+        p.printAST(arena.toNode(root), actual, false);
+        assertEquals(expected.toString(), actual.toString());
+
+        int x = arena.left(arena.right(arena.left(arena.left(root))));
+        assertEquals("x", arena.value(x));
+        int y = arena.left(arena.right(root));
+        assertEquals(Parser.NodeType.nd_Ident, arena.type(y));
+        assertEquals(arena.valueRef(x), arena.valueRef(y));
+    }
+
+    @Test
+    public void testResetAndTryParse() throws Exception {
+        String[] sources = {"x = 1;\nprint(x);", "while (x < 3) x = x + 1;", "x = (1;", "/* open", "if (x) putc(x); else { }"};
+        java.util.List<String> expected = new java.util.ArrayList<>();
+        Parser printer = new Parser(new Lexer(""));
+        for (String source : sources) {
+            try {
+                expected.add(printer.printAST(new Parser(new Lexer(source)).parse(), new StringBuilder()));
+            } catch (CompileException e) {
+                expected.add(e.getMessage());
+            }
+        }
+        // one lexer and parser per thread, each reused for every source
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+        try {
+            java.util.List<java.util.concurrent.Future<?>> done = new java.util.ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                done.add(pool.submit(() -> {
+                    Lexer lexer = new Lexer("");
+                    Parser parser = new Parser(lexer);
+                    TokenBuffer tokens = new TokenBuffer();
+                    for (int n = 0; n < 200; n++) {
+                        int i = n % sources.length;
+                        Parser.Result result = parser.reset(lexer.reset(sources[i])).tryParse();
+                        assertEquals(expected.get(i), result.ok() ? printer.printAST(result.tree, new StringBuilder()) : result.error.getMessage());
+                        if (result.ok()) {
+                            tokens.clear();
+                            lexer.reset(sources[i]).tokenize(tokens);
+                            assertEquals(expected.get(i), printer.printAST(parser.reset(tokens).parse(), new StringBuilder()));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (java.util.concurrent.Future<?> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(new Parser(new Lexer("x = (1;")).tryParse().ok());
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class VMTest {
+
+    private static final String COUNT = "count = 1;\nwhile (count < 4) {\n  print(\"count is: \", count, \"\\n\");\n  count = count + 1;\n}";
+
+    @Test
+    public void testListing() throws IOException {
+        StringWriter out = new StringWriter();
+        CodeGen.generate(new Parser(new Lexer(COUNT)).parse()).list(out);
+        assertEquals("Datasize: 1 Strings: 2\n"
+                + "\"count is: \"\n"
+                + "\"\\n\"\n"
+                + "    0 push  1\n"
+                + "    2 store [0]\n"
+                + "    4 fetch [0]\n"
+                + "    6 push  4\n"
+                + "    8 lt\n"
+                + "    9 jz    (16) 27\n"
+                + "   11 prts  0\n"
+                + "   13 fetch [0]\n"
+                + "   15 prti\n"
+                + "   16 prts  1\n"
+                + "   18 fetch [0]\n"
+                + "   20 push  1\n"
+                + "   22 add\n"
+                + "   23 store [0]\n"
+                + "   25 jmp   (-23) 4\n"
+                + "   27 halt\n", out.toString());
+    }
+
+    @Test
+    public void testSameOutputAsInterpreter() throws IOException {
+        String source = COUNT + "\nn = 0; i = 20;\nwhile (i >= -3) {\n  if (i % 3 == 0 || !(i - 7) && 1) n = n + i * 2 / 3; else if (i <= 2) putc(64 - i);\n"
+                + "  i = i - 1;\n}\nprint(n, \" \", -n != 0, \"\\n\");";
+        Parser.Node t = new Parser(new Lexer(source)).parse();
+        StringWriter expected = new StringWriter();
+        new Interpreter(t).run(expected);
+        StringWriter actual = new StringWriter();
+        VM vm = new VM(CodeGen.generate(t));
+        vm.run(actual);
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(-4, vm.get("i"));
+    }
+
+    @Test
+    public void testLogicalOperatorsShortCircuitOnEveryBackend() throws IOException {
+        String source = "x = 0;\nif (x != 0 && 10 / x > 1) print(\"then\\n\"); else print(\"else\\n\");\n"
+                + "if (x == 0 || 10 / x > 1) print(\"or\\n\");\n"
+                + "a = (x && 1 / x) + (1 || 1 / x) * 10 + (3 && 4) * 100 + (0 || 0) * 1000;\nprint(a, \"\\n\");";
+        Parser.Node t = new Parser(new Lexer(source)).parse();
+        StringWriter interpreted = new StringWriter();
+        new Interpreter(t).run(interpreted);
+        assertEquals("else\nor\n110\n", interpreted.toString());
+        StringWriter vm = new StringWriter();
+        new VM(CodeGen.generate(t)).run(vm);
+        assertEquals(interpreted.toString(), vm.toString());
+        StringWriter jvm = new StringWriter();
+        JvmCompiler.compile(t).run(jvm);
+        assertEquals(interpreted.toString(), jvm.toString());
+    }
+
+    @Test
+    public void testLiteralOutOfRange() {
+        CompileException e = assertThrows(CompileException.class, () -> CodeGen.generate(new Parser(new Lexer("x = 99999999999;")).parse()));
+        assertEquals("Integer literal out of range: 99999999999 in line 1, pos 4", e.getMessage()); // a String source starts at pos 0
+        // a tree that did not come from the parser has no position to report
+        Parser.Node t = Parser.Node.make_node(Parser.NodeType.nd_Assign, Parser.Node.make_leaf(Parser.NodeType.nd_Ident, "x"),
+                Parser.Node.make_leaf(Parser.NodeType.nd_Integer, "99999999999"));
+        e = assertThrows(CompileException.class, () -> CodeGen.generate(t));
+        assertEquals("Integer literal out of range: 99999999999", e.getMessage());
+    }
+
+    /**
+     * @return "x = 1 + 1 + ...; y = 0 || 0 || ... || 1; print(x, " ", y);" with n terms in each expression
+     */
+    static String deepExpressions(int n) {
+        StringBuilder source = new StringBuilder("x = 1");
+        source.append(" + 1".repeat(n - 1)).append(";\ny = ").append("0 || ".repeat(n - 1)).append("1;\n");
+        return source.append("print(x, \" \", y);").toString();
+    }
+
+    @Test
+    public void testDeepExpressionsDoNotDependOnTheThreadStack() throws IOException {
+        Parser.Node t = new Parser(new Lexer(deepExpressions(100000))).parse();
+        StringWriter vm = new StringWriter();
+        new VM(CodeGen.generate(t)).run(vm);
+        assertEquals("100000 1", vm.toString());
+        // too large for one JVM method, which the caller is told so it can run the VM instead
+        assertThrows(JvmCompiler.TooLargeException.class, () -> JvmCompiler.compile(t));
+
+        StringWriter jvm = new StringWriter();
+        JvmCompiler.compile(new Parser(new Lexer(deepExpressions(5000))).parse()).run(jvm);
+        assertEquals("5000 1", jvm.toString());
+    }
+}